@@ -0,0 +1,120 @@
+package com.craftinginterpreters.lox;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+Stress test for independent runs: runs hundreds of scripts at once on a
+thread pool through Lox.run, each with its own Interpreter, ErrorReporter
+and output, and checks that every run saw exactly its own output and errors.
+A third of the scripts fail at runtime and a third don't parse, so error
+state crossing between runs shows up as a mismatch.
+
+  javac -cp target/classes -d target/benchmarks benchmarks/ConcurrentRuns.java
+  java -cp target/classes:target/benchmarks com.craftinginterpreters.lox.ConcurrentRuns [runs] [threads]
+
+Exits with status 1 if any run saw anything else.
+*/
+class ConcurrentRuns {
+  public static void main(String[] args) throws Exception {
+    int runs = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+    int threads = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    long start = System.nanoTime();
+    List<Future<String>> results = new ArrayList<>();
+    for (int i = 0; i < runs; i++) {
+      int id = i;
+      results.add(pool.submit(() -> check(id)));
+    }
+    int failures = 0;
+    for (Future<String> result : results) {
+      String failure = result.get();
+      if (failure != null) {
+        failures++;
+        System.err.println(failure);
+      }
+    }
+    long millis = (System.nanoTime() - start) / 1_000_000;
+    pool.shutdown();
+
+    System.out.printf("%d runs on %d threads in %d ms, %d failed%n", runs, threads, millis, failures);
+    System.exit(failures == 0 ? 0 : 1);
+  }
+
+  private enum Kind { OK, RUNTIME_ERROR, SYNTAX_ERROR }
+
+  // Runs script `id` and returns what was wrong with its results, or null.
+  private static String check(int id) {
+    Kind kind = Kind.values()[id % Kind.values().length];
+    StringWriter output = new StringWriter();
+    Recorder reporter = new Recorder();
+    Interpreter interpreter = new Interpreter(reporter);
+    interpreter.out = new OutputSink(output, OutputSink.Flush.SIZE, OutputSink.DEFAULT_BUFFER_SIZE);
+    Lox.run(source(id, kind), interpreter, reporter);
+    interpreter.out.flush();
+
+    String expectedOutput = kind == Kind.SYNTAX_ERROR
+      ? ""
+      : "run " + id + System.lineSeparator() + "true" + System.lineSeparator();
+    List<String> expectedErrors = new ArrayList<>();
+    if (kind == Kind.RUNTIME_ERROR) expectedErrors.add("Variable 'missing" + id + "' not defined.");
+    if (kind == Kind.SYNTAX_ERROR) expectedErrors.add("Error at 'id" + id + "': Expect ';' after value.");
+
+    if (!output.toString().equals(expectedOutput)) {
+      return String.format("run %d printed %s, expected %s", id, output, expectedOutput);
+    } else if (!reporter.errors.equals(expectedErrors)) {
+      return String.format("run %d reported %s, expected %s", id, reporter.errors, expectedErrors);
+    } else if (reporter.hadError != (kind == Kind.SYNTAX_ERROR)
+        || reporter.hadRuntimeError != (kind == Kind.RUNTIME_ERROR)) {
+      return String.format("run %d has hadError=%s, hadRuntimeError=%s", id, reporter.hadError,
+        reporter.hadRuntimeError);
+    }
+    return null;
+  }
+
+  private static String source(int id, Kind kind) {
+    StringBuilder source = new StringBuilder();
+    if (kind == Kind.SYNTAX_ERROR) source.append("print id id").append(id).append(";\n");
+    source.append("var id = \"run ").append(id).append("\";\n");
+    source.append("var total = 0;\n");
+    source.append("for (var k = 0; k < 2000; k = k + 1) total = total + k;\n");
+    source.append("print id;\n");
+    source.append("print total == 1999000;\n");
+    if (kind == Kind.RUNTIME_ERROR) source.append("print missing").append(id).append(";\n");
+    return source.toString();
+  }
+
+  // Keeps each run's error messages instead of printing them.
+  private static class Recorder extends ErrorReporter {
+    final List<String> errors = new ArrayList<>();
+
+    @Override
+    synchronized void report(int line, String where, String message) {
+      errors.add("Error" + where + ": " + message);
+      hadError = true;
+    }
+
+    @Override
+    synchronized void runtimeError(RuntimeError error) {
+      errors.add(error.getMessage());
+      hadRuntimeError = true;
+    }
+
+    @Override
+    synchronized void assertionError(AssertionError error) {
+      errors.add(error.getMessage());
+      hadRuntimeError = true;
+    }
+
+    @Override
+    synchronized void javaError(JavaError error, DebugInfo debugInfo) {
+      errors.add(error.error.toString());
+      hadRuntimeError = true;
+    }
+  }
+}
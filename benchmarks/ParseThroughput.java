@@ -0,0 +1,94 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.Random;
+
+/*
+Parse throughput on expression-dense input. Generates `lines` statements of
+the form `var vN = <expression>;`, each expression about 60 tokens of
+arithmetic, comparisons, equality, unary operators, grouping, calls and
+property accesses, from a fixed seed. The source is scanned once into a
+TokenBuffer, so only the Parser is timed, and then parsed `runs` times.
+
+  javac -cp target/classes -d target/benchmarks benchmarks/ParseThroughput.java
+  java -cp target/classes:target/benchmarks com.craftinginterpreters.lox.ParseThroughput [lines] [runs]
+
+Prints the best run and its tokens per second.
+*/
+class ParseThroughput {
+  private static final String[] BINARY = { "+", "-", "*", "/", "<", "<=", ">", ">=", "==", "!=" };
+
+  public static void main(String[] args) {
+    int lines = args.length > 0 ? Integer.parseInt(args[0]) : 40000;
+    int runs = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+
+    String source = generate(lines, new Random(34));
+    ErrorReporter reporter = new ErrorReporter();
+    TokenBuffer tokens = new Scanner(source, reporter).scanTokenBuffer();
+    if (reporter.hadError) System.exit(1);
+
+    long best = Long.MAX_VALUE;
+    for (int run = 0; run < runs; run++) {
+      long start = System.nanoTime();
+      List<Statement> statements = new Parser(tokens.cursor(), reporter, false).parse();
+      long elapsed = System.nanoTime() - start;
+      if (reporter.hadError || statements.size() != lines) {
+        System.err.println("The generated source didn't parse.");
+        System.exit(1);
+      }
+      best = Math.min(best, elapsed);
+    }
+
+    System.out.printf("%d lines, %d tokens: best of %d runs %d ms, %.1fM tokens/s%n",
+      lines, tokens.size(), runs, best / 1_000_000, tokens.size() / (best / 1e9) / 1e6);
+  }
+
+  static String generate(int lines, Random random) {
+    StringBuilder source = new StringBuilder();
+    for (int i = 0; i < lines; i++) {
+      source.append("var v").append(i).append(" = ");
+      expression(source, random, 5);
+      source.append(";\n");
+    }
+    return source.toString();
+  }
+
+  // Appends a random expression nested at most `depth` deep.
+  private static void expression(StringBuilder source, Random random, int depth) {
+    if (depth == 0) {
+      operand(source, random);
+      return;
+    }
+    switch (random.nextInt(8)) {
+      case 0:
+        source.append('(');
+        expression(source, random, depth - 1);
+        source.append(')');
+        break;
+      case 1:
+        source.append(random.nextBoolean() ? "-" : "!");
+        expression(source, random, depth - 1);
+        break;
+      case 2:
+        source.append("f(");
+        expression(source, random, depth - 1);
+        source.append(", ");
+        expression(source, random, depth - 1);
+        source.append(')');
+        break;
+      default:
+        expression(source, random, depth - 1);
+        source.append(' ').append(BINARY[random.nextInt(BINARY.length)]).append(' ');
+        expression(source, random, depth - 1);
+    }
+  }
+
+  private static void operand(StringBuilder source, Random random) {
+    switch (random.nextInt(4)) {
+      case 0: source.append(random.nextInt(1000)); break;
+      case 1: source.append("x").append(random.nextInt(10)); break;
+      case 2: source.append("o.p").append(random.nextInt(10)); break;
+      default: source.append("\"s\"");
+    }
+  }
+}
@@ -0,0 +1,213 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+Prints an AST as a tree, e.g.
+
+  └─PrintStmt: PrintStmt@1b6d3586
+    └─Binary: 1+2
+      ├─Literal: 1.0
+      ├─Token: +
+      └─Literal: 2.0
+
+The nodes themselves only hold their semantic fields; the children to print
+for each node type are listed here.
+*/
+class AstPrinter implements Expr.Visitor<Object>, Statement.Visitor<Void> {
+  AstPrinter(PrintStream out) {
+    this.out = out;
+  }
+
+  private final PrintStream out;
+  private String prefix = "";
+  private boolean youngest = true;
+
+  static void print(Statement stmt) {
+    // (alin) this indexing is not safe!
+    String caller = Thread.currentThread().getStackTrace()[2].getMethodName();
+    String callerParent = Thread.currentThread().getStackTrace()[3].getMethodName();
+    System.out.printf("Caller: '%s.%s'\n", callerParent, caller);
+    new AstPrinter(System.out).node(stmt);
+  }
+
+  // Prints one line for `node`, then its children one level deeper.
+  private void line(Object node, Object... children) {
+    String parentPostfix = youngest ? "└─" : "├─";
+    String name = node.getClass().getSimpleName();
+    out.printf(prefix + parentPostfix + name + ": " + node + "%n");
+
+    String outerPrefix = prefix;
+    boolean outerYoungest = youngest;
+    prefix = prefix + (youngest ? "  " : "│ ");
+    for (int i = 0; i < children.length; i++) {
+      youngest = (i == children.length - 1);
+      node(children[i]);
+    }
+    prefix = outerPrefix;
+    youngest = outerYoungest;
+  }
+
+  private void node(Object node) {
+    if (node instanceof Expr) {
+      ((Expr) node).evaluateWith(this);
+    } else if (node instanceof Statement) {
+      ((Statement) node).executeWith(this);
+    } else if (node instanceof Series) {
+      line(node, ((Series<?>) node).members.toArray());
+    } else {
+      line(node);
+    }
+  }
+
+  private static Object[] concat(Object first, List<?> rest) {
+    List<Object> all = new ArrayList<>();
+    all.add(first);
+    all.addAll(rest);
+    return all.toArray();
+  }
+
+  @Override
+  public Object evalAssignExpr(Assign assign) {
+    line(assign, assign.assignee, assign.value);
+    return null;
+  }
+
+  @Override
+  public Object evalBinaryExpr(Binary binary) {
+    line(binary, binary.left, binary.operator, binary.right);
+    return null;
+  }
+
+  @Override
+  public Object evalEmptyExpr(Empty empty) {
+    line(empty);
+    return null;
+  }
+
+  @Override
+  public Object evalCallExpr(Call call) {
+    line(call, call.callee, call.arguments);
+    return null;
+  }
+
+  @Override
+  public Object evalGroupingExpr(Grouping grouping) {
+    line(grouping, grouping.expr);
+    return null;
+  }
+
+  @Override
+  public Object evalLiteralExpr(Literal literal) {
+    line(literal);
+    return null;
+  }
+
+  @Override
+  public Object evalLogicalExpr(Logical logical) {
+    line(logical, logical.left, logical.operator, logical.right);
+    return null;
+  }
+
+  @Override
+  public Object evalPropertyExpr(Property property) {
+    line(property, property.left, property.right);
+    return null;
+  }
+
+  @Override
+  public Object evalThisExpr(This expr) {
+    line(expr, expr.token);
+    return null;
+  }
+
+  @Override
+  public Object evalUnaryExpr(Unary unary) {
+    line(unary, unary.operator, unary.expr);
+    return null;
+  }
+
+  @Override
+  public Object evalVarExpr(Var variable) {
+    line(variable);
+    return null;
+  }
+
+  @Override
+  public Void execBlockStmt(BlockStmt stmt) {
+    line(stmt, stmt.statements.toArray());
+    return null;
+  }
+
+  @Override
+  public Void execExprStmt(ExprStmt stmt) {
+    line(stmt, stmt.expr);
+    return null;
+  }
+
+  @Override
+  public Void execClassStmt(ClassStmt stmt) {
+    List<Object> members = new ArrayList<>(stmt.properties);
+    members.addAll(stmt.methods);
+    line(stmt, concat(stmt.name, members));
+    return null;
+  }
+
+  @Override
+  public Void execForStmt(ForStmt stmt) {
+    line(stmt, stmt.initializer, stmt.condition, stmt.iterator, stmt.body);
+    return null;
+  }
+
+  @Override
+  public Void execFuncStmt(FuncStmt stmt) {
+    // Printing never triggers parsing of a lazy body.
+    Object body = stmt.isBodyParsed() ? stmt.body() : "<unparsed body>";
+    line(stmt, stmt.name, stmt.parameters, body);
+    return null;
+  }
+
+  @Override
+  public Void execIfStmt(IfStmt stmt) {
+    line(stmt, stmt.condition, stmt.then, stmt.otherwise);
+    return null;
+  }
+
+  @Override
+  public Void execImportStmt(ImportStmt stmt) {
+    line(stmt, stmt.path);
+    return null;
+  }
+
+  @Override
+  public Void execPrintStmt(PrintStmt stmt) {
+    line(stmt, stmt.expr);
+    return null;
+  }
+
+  @Override
+  public Void execReturnStmt(ReturnStmt stmt) {
+    line(stmt, stmt.expr);
+    return null;
+  }
+
+  @Override
+  public Void execYieldStmt(YieldStmt stmt) {
+    line(stmt, stmt.expr);
+    return null;
+  }
+
+  @Override
+  public Void execVarStmt(VarStmt stmt) {
+    line(stmt, stmt.name, stmt.expr);
+    return null;
+  }
+
+  @Override
+  public Void execWhileStmt(WhileStmt stmt) {
+    line(stmt, stmt.condition, stmt.body);
+    return null;
+  }
+}
@@ -0,0 +1,72 @@
+package com.craftinginterpreters.lox;
+
+/*
+A string built by `+`, kept unflattened so that `s = s + piece;` in a loop
+takes amortized linear time instead of copying `s` on every iteration.
+
+Each ConcatString is a prefix of a StringBuilder it may share with the
+strings it was built from. Appending to the one whose prefix is the whole
+builder appends in place; appending to any other copies first, so no string
+ever sees another's characters change.
+
+Lox code can't tell these from Strings. Everything that looks at the
+characters (equality, map keys, printing, values handed back to Java)
+flattens first, and the flattened String is kept.
+*/
+class ConcatString {
+  // Shorter results are plain Strings; copying them is cheaper than this.
+  private static final int MIN_LENGTH = 64;
+
+  private ConcatString(StringBuilder builder) {
+    this.builder = builder;
+    this.length = builder.length();
+  }
+
+  private final StringBuilder builder; // Guarded by itself.
+  private final int length;
+  private String flat = null;
+
+  static boolean isString(Object value) {
+    return value instanceof String || value instanceof ConcatString;
+  }
+
+  // Both operands must satisfy isString().
+  static Object concat(Object left, Object right) {
+    String suffix = right.toString();
+    if (left instanceof ConcatString) {
+      ConcatString string = (ConcatString) left;
+      synchronized (string.builder) {
+        if (string.builder.length() == string.length) {
+          return new ConcatString(string.builder.append(suffix));
+        }
+      }
+    }
+
+    String prefix = left.toString();
+    int length = prefix.length() + suffix.length();
+    if (length < MIN_LENGTH) return prefix + suffix;
+    // Room to double before the first copy.
+    return new ConcatString(new StringBuilder(length * 2).append(prefix).append(suffix));
+  }
+
+  // The String for a Lox value, or the value itself if it isn't a string.
+  static Object flatten(Object value) {
+    return value instanceof ConcatString ? value.toString() : value;
+  }
+
+  int length() {
+    return length;
+  }
+
+  @Override
+  public String toString() {
+    String result = flat;
+    if (result == null) {
+      synchronized (builder) {
+        result = builder.substring(0, length);
+      }
+      flat = result;
+    }
+    return result;
+  }
+}
@@ -0,0 +1,100 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Error state for a single run of the interpreter. Each Scanner, Parser and
+// Interpreter reports into the ErrorReporter it was constructed with, so
+// independent runs (e.g. on different threads) never see each other's errors.
+// Within one run, stages on different threads (see Pipeline) may share it, so
+// each report is printed as a unit.
+class ErrorReporter {
+  volatile boolean hadError = false;
+  volatile boolean hadRuntimeError = false;
+
+  void error(int line, String message) {
+    report(line, "", message);
+  }
+
+  void error(Token token, String message) {
+    if (token.type == TokenType.EOF) {
+      report(token.line, " at end", message);
+    } else {
+      report(token.line, " at '" + token.lexeme + "'", message);
+    }
+  }
+
+  synchronized void report(int line, String where, String message) {
+    System.err.println(
+        "[line " + line + "] Error" + where + ": " + message);
+    hadError = true;
+  }
+
+  synchronized void runtimeError(RuntimeError error) {
+    System.err.println("\n[RUNTIME ERROR]");
+    printDebugInfo(error.debugInfo);
+    System.err.println(error.getMessage() +
+        "\n[line " + error.token.line + "]");
+    hadRuntimeError = true;
+  }
+
+  synchronized void assertionError(AssertionError error) {
+    System.err.println("\n[ASSERTION ERROR]");
+    printDebugInfo(error.debugInfo);
+    System.err.println(error.getMessage());
+    hadRuntimeError = true;
+  }
+
+  // TODO: modify javaError to encapsulate debugInfo
+  synchronized void javaError(JavaError error, DebugInfo debugInfo) {
+    System.err.println("\n[FATAL]");
+    printDebugInfo(debugInfo);
+    error.error.printStackTrace();
+    System.err.println(error.error);
+    hadRuntimeError = true;
+  }
+
+  // Clears syntax errors between REPL lines.
+  void reset() {
+    hadError = false;
+  }
+
+  static void printDebugInfo(DebugInfo debugInfo) {
+    for (Statement stmt : debugInfo.executionStack) {
+      System.err.printf("[line %s]\n", stmt.indicator.line);
+      AstPrinter.print(stmt);
+    }
+
+    System.err.println("Call stack:");
+    for (LoxCallable callable : debugInfo.callStack) {
+      System.err.println("  " + callable);
+    }
+
+    System.err.println("Environment:");
+    debugInfo.environment.print();
+  }
+
+  // Holds syntax errors back so they can be replayed later, e.g. once their
+  // line numbers are known.
+  static class Buffered extends ErrorReporter {
+    final List<Report> reports = new ArrayList<>();
+
+    @Override
+    void report(int line, String where, String message) {
+      reports.add(new Report(line, where, message));
+      hadError = true;
+    }
+  }
+
+  static class Report {
+    Report(int line, String where, String message) {
+      this.line = line;
+      this.where = where;
+      this.message = message;
+    }
+
+    final int line;
+    final String where;
+    final String message;
+  }
+}
@@ -1,9 +1,8 @@
 package com.craftinginterpreters.lox;
 
-import java.util.Arrays;
 import java.util.List;
 
-abstract class Expr extends Lexeme {
+abstract class Expr {
   abstract public Object evaluateWith(Visitor<Object> visitor);
 
   interface Visitor<T> { 
@@ -22,9 +21,7 @@ abstract class Expr extends Lexeme {
 }
 
 class Empty extends Expr {
-  Empty() {
-    this._printables = Arrays.asList();
-  }
+  Empty() {}
 
   @Override
   public String toString() {
@@ -44,7 +41,6 @@ class Binary extends Expr {
     this.left = left;
     this.operator = operator;
     this.right = right;
-    this._printables = Arrays.asList(left, operator, right);
   }
 
   final Expr left;
@@ -67,7 +63,6 @@ class Logical extends Expr {
     this.left = left;
     this.operator = operator;
     this.right = right;
-    this._printables = Arrays.asList(left, operator, right);
   }
 
   final Expr left;
@@ -89,7 +84,6 @@ class Unary extends Expr {
   Unary(Token operator, Expr expr) {
     this.operator = operator;
     this.expr = expr;
-    this._printables = Arrays.asList(operator, expr);
   }
 
   final Token operator;
@@ -109,7 +103,6 @@ class Unary extends Expr {
 class Grouping extends Expr {
   Grouping(Expr expr) {
     this.expr = expr;
-    this._printables = Arrays.asList(expr);
   }
 
   final Expr expr;
@@ -128,7 +121,6 @@ class Grouping extends Expr {
 class Literal extends Expr {
   Literal(Object value) {
     this.value = value;
-    this._printables = Arrays.asList();
   }
 
   final Object value;
@@ -147,7 +139,6 @@ class Literal extends Expr {
 class Var extends Expr {
   Var(Token name) {
     this.name = name;
-    this._printables = Arrays.asList();
   }
 
   final Token name;
@@ -168,7 +159,6 @@ class Assign extends Expr {
     this.assignee = assignee;
     this.token = token;
     this.value = value;
-    this._printables = Arrays.asList(assignee, value);
   }
 
   // This token is used for error handling purposes.
@@ -188,17 +178,19 @@ class Assign extends Expr {
 }
 
 class Call extends Expr {
-  Call(Token token, Expr callee, Series arguments) {
+  Call(Token token, Expr callee, Series<Expr> arguments) {
     this.token = token;
     this.callee = callee;
     this.arguments = arguments;
-    this._printables = Arrays.asList(callee, arguments);
+    this.intrinsic = Intrinsic.recognize(callee, arguments.size());
   }
 
   // The token is used for error handling purposes.
   final Token token;
   final Expr callee;
-  final Series arguments;
+  final Series<Expr> arguments;
+  // Null unless this may be a call to a math native; see Intrinsic.
+  final Intrinsic intrinsic;
 
   @Override
   public String toString() {
@@ -215,7 +207,6 @@ class Call extends Expr {
 class This extends Expr {
   This(Token token) {
     this.token = token;
-    this._printables = Arrays.asList(token);
   }
 
   final Token token;
@@ -236,7 +227,6 @@ class Property extends Expr {
   Property(Expr left, Token right) {
     this.left = left;
     this.right = right;
-    this._printables = Arrays.asList(left, right);
   }
 
   final Expr left;
@@ -254,10 +244,9 @@ class Property extends Expr {
 }
 
 
-class Series<T extends Expr> extends Lexeme {
+class Series<T extends Expr> {
   Series(List<T> members) {
     this.members = members;
-    this._printables.addAll(members);
   }
 
   final List<T> members;
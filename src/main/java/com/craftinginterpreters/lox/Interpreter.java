@@ -1,37 +1,120 @@
 package com.craftinginterpreters.lox;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 import java.util.Stack;
+import java.util.concurrent.ForkJoinPool;
 
 class Interpreter implements Expr.Visitor<Object>,
                              Statement.Visitor<Void> {
-  Interpreter() {
-    this.currentScope = new Scope(null);
+  Interpreter(ErrorReporter reporter) {
+    this(reporter, newGlobalScope());
+  }
+
+  // Runs against an existing global scope, e.g. one owned by a ScriptEngine.
+  Interpreter(ErrorReporter reporter, Scope globals) {
+    this.reporter = reporter;
+    this.currentScope = globals;
     this.executionStack = new Stack<>();
     this.callStack = new Stack<>();
+  }
 
-    this.currentScope._declare("clock", NativeFunctions.CLOCK);
-    this.currentScope._declare("assert", NativeFunctions.ASSERT);
-    this.currentScope._declare("assert_raises", NativeFunctions.ASSERT_RAISES);
+  static Scope newGlobalScope() {
+    // Tasks share the globals.
+    Scope globals = new Scope(null).share();
+    NativeBinding.define(globals, NativeFunctions.class);
+    globals._declare("assert", NativeFunctions.ASSERT);
+    globals._declare("assert_raises", NativeFunctions.ASSERT_RAISES);
+    globals._declare("array", NativeFunctions.ARRAY);
+    globals._declare("array_get", NativeFunctions.ARRAY_GET);
+    globals._declare("array_set", NativeFunctions.ARRAY_SET);
+    globals._declare("array_push", NativeFunctions.ARRAY_PUSH);
+    globals._declare("array_pop", NativeFunctions.ARRAY_POP);
+    globals._declare("array_length", NativeFunctions.ARRAY_LENGTH);
+    globals._declare("map", NativeFunctions.MAP);
+    globals._declare("map_get", NativeFunctions.MAP_GET);
+    globals._declare("map_set", NativeFunctions.MAP_SET);
+    globals._declare("map_has", NativeFunctions.MAP_HAS);
+    globals._declare("map_delete", NativeFunctions.MAP_DELETE);
+    globals._declare("map_size", NativeFunctions.MAP_SIZE);
+    globals._declare("map_keys", NativeFunctions.MAP_KEYS);
+    globals._declare("map_each", NativeFunctions.MAP_EACH);
+    globals._declare("spawn", NativeFunctions.SPAWN);
+    return globals;
   }
 
   final static int MAX_RECURSION_DEPTH = 50;
 
+  final ErrorReporter reporter;
+  OutputSink out = OutputSink.SYSTEM_OUT;
+  // Created on first use; forks and imported modules share their creator's.
+  ModuleCache modules = null;
+  // The files being executed by this chain of imports, outermost first. The
+  // last is the one this Interpreter runs; imports resolve against its
+  // directory, or the working directory if the chain is empty.
+  List<Path> importChain = new ArrayList<>();
   Scope currentScope;
   Stack<Statement> executionStack;
   Stack<LoxCallable> callStack;
+  // When positive, pure functions cache up to this many results each; see
+  // Memo. Set by --memoize.
+  int memoCapacity = 0;
+
+  // Backs the random() native. Unseeded until random_seed() is called.
+  Random random = null;
+
+  Random random() {
+    if (random == null) random = new Random();
+    return random;
+  }
+
+  ModuleCache modules() {
+    if (modules == null) modules = new ModuleCache(ForkJoinPool.commonPool(), false);
+    return modules;
+  }
+
+  // Set on the Interpreter running a generator's body, which `yield` hands
+  // values to.
+  LoxGenerator.Channel generator = null;
+
+  // Set on parallel_map and parallel_reduce workers, which may only assign
+  // to the variables of the function they are running; see Parallel.
+  boolean isolated = false;
+
+  // A new Interpreter to run Lox on another thread alongside this one. It
+  // shares this one's globals, output and settings, but has its own scope
+  // and stacks.
+  Interpreter fork() {
+    Interpreter fork = new Interpreter(reporter, currentScope.getGlobal());
+    fork.out = out;
+    fork.modules = modules();
+    fork.importChain = new ArrayList<>(importChain);
+    fork.memoCapacity = memoCapacity;
+    // Its own, so a seeded script draws the same numbers whichever thread
+    // gets to run first.
+    fork.random = new Random(random().nextLong());
+    fork.isolated = isolated;
+    return fork;
+  }
 
   void interpret(Statement statement) {
+    // Flush `out` before reporting, so the report follows the output of
+    // everything that ran before it.
     try {
       execute(statement);
     } catch (RuntimeError error) {
-      Lox.runtimeError(error);
+      out.flush();
+      reporter.runtimeError(error);
     } catch (AssertionError error) {
-      Lox.assertionError(error);
+      out.flush();
+      reporter.assertionError(error);
     } catch (RuntimeException error) {
+      out.flush();
       DebugInfo debugInfo = new DebugInfo(this);
-      Lox.javaError(new JavaError(statement, error), debugInfo);
+      reporter.javaError(new JavaError(statement, error), debugInfo);
     } finally {
       executionStack.clear();
     }
@@ -55,7 +138,7 @@ class Interpreter implements Expr.Visitor<Object>,
     } else if (obj instanceof Boolean) {
       return ((boolean) obj ? 1.0 : 0.0);
     } else {
-      throw new InterpreterCastException("double", obj);
+      throw new InterpreterCastException("double", ConcatString.flatten(obj));
     }
   }
 
@@ -69,12 +152,13 @@ class Interpreter implements Expr.Visitor<Object>,
     } else if (obj instanceof String) {
       return !obj.equals("");
     }
+    // Including every ConcatString, none of which are empty.
     return true;
   }
   
   static Object _add(Object leftObj, Object rightObj) throws InterpreterCastException {
-    if (leftObj instanceof String && rightObj instanceof String) {
-      return (String) leftObj + (String) rightObj;
+    if (ConcatString.isString(leftObj) && ConcatString.isString(rightObj)) {
+      return ConcatString.concat(leftObj, rightObj);
     } else {
       return toNum(leftObj) + toNum(rightObj);
     }
@@ -85,8 +169,10 @@ class Interpreter implements Expr.Visitor<Object>,
       return true;
     } else if (leftObj == null || rightObj == null) {
       return false;
+    } else if (leftObj == rightObj) {
+      return true;
     }
-    return leftObj.equals(rightObj);
+    return ConcatString.flatten(leftObj).equals(ConcatString.flatten(rightObj));
   }
 
   @Override
@@ -188,6 +274,7 @@ class Interpreter implements Expr.Visitor<Object>,
     if (assign.assignee instanceof Var) {
       Var assignee = (Var) assign.assignee;
       Object value = evaluate(assign.value);
+      if (isolated) checkIsolated(assignee.name);
 
       try {
         currentScope.assign(assignee.name, value);
@@ -220,6 +307,9 @@ class Interpreter implements Expr.Visitor<Object>,
   @Override
   public Object evalCallExpr(Call call) {
     Object callee = evaluate(call.callee);
+    if (call.intrinsic != null && callee == call.intrinsic.callable) {
+      return call.intrinsic.evaluate(this, call.arguments.members);
+    }
     if (!(callee instanceof LoxCallable)) {
       throw _runtimeError(call.token, "Expression is not callable.");
     }
@@ -230,8 +320,35 @@ class Interpreter implements Expr.Visitor<Object>,
     if (!loxCallable.isValidArity(call.arguments.size())) {
       throw _runtimeError(call.token, String.format("Expected %s arguments, but got %s.", loxCallable.arityString(), call.arguments.size()));
     }
-    List<Object> args = evalSeries(call.arguments);
-    
+    // Up to three arguments are passed as they are, without building a List.
+    List<Expr> arguments = call.arguments.members;
+    int count = arguments.size();
+    List<Object> args = count > 3 ? evalSeries(call.arguments) : null;
+    Object a = args == null && count > 0 ? evaluate(arguments.get(0)) : null;
+    Object b = args == null && count > 1 ? evaluate(arguments.get(1)) : null;
+    Object c = args == null && count > 2 ? evaluate(arguments.get(2)) : null;
+    checkRecursionDepth(call);
+    return callFunction(loxCallable, args, count, a, b, c);
+  }
+
+  // Throws unless `name` is a variable of the running function, declared in
+  // one of the scopes it has entered since it was called.
+  private void checkIsolated(Token name) {
+    LoxCallable running = callStack.isEmpty() ? null : callStack.peek();
+    if (running instanceof LoxMethod) running = ((LoxMethod) running).function;
+    // The scope the function was declared in, and everything around it, are
+    // shared.
+    Scope shared = running instanceof LoxFunction ? ((LoxFunction) running).environment : null;
+    for (Scope scope = currentScope; scope != null && scope != shared; scope = scope.parent) {
+      if (scope.locals.containsKey(name.literal)) return;
+    }
+    if (currentScope._find((Symbol) name.literal) != null) {
+      throw _runtimeError(name, String.format(
+        "Cannot assign to '%s' in a parallel worker; it is shared with other workers.", name.lexeme));
+    }
+  }
+
+  private void checkRecursionDepth(Call call) {
     // Check for maximum recursion depth.
     // It would be cleaner for this to be called on every LoxCallable call.
     // Right now, this check has to be done wherever `.call()` is invoked directly.
@@ -241,12 +358,27 @@ class Interpreter implements Expr.Visitor<Object>,
         String.format("Maximum recursion depth exceeded: %s", MAX_RECURSION_DEPTH)
       );
     }
+  }
 
-    // Call the function.
+  // Calls `callable` with already-evaluated arguments. Also used to call into
+  // Lox from Java, e.g. from the ScriptEngine.
+  Object callFunction(LoxCallable callable, List<Object> args) {
+    return callFunction(callable, args, args.size(), null, null, null);
+  }
+
+  // Takes `args`, or if that is null `count` arguments, at most three, as
+  // `a`, `b` and `c`.
+  private Object callFunction(LoxCallable callable, List<Object> args, int count, Object a, Object b, Object c) {
     Scope outerScope = currentScope;
-    callStack.push(loxCallable);
+    callStack.push(callable);
     try {
-      return loxCallable.call(this, args);
+      if (args != null) return callable.call(this, args);
+      switch (count) {
+        case 0: return callable.call0(this);
+        case 1: return callable.call1(this, a);
+        case 2: return callable.call2(this, a, b);
+        default: return callable.call3(this, a, b, c);
+      }
     } finally {
       callStack.pop();
       currentScope = outerScope;
@@ -305,9 +437,19 @@ class Interpreter implements Expr.Visitor<Object>,
     return null;
   }
 
+  @Override
+  public Void execImportStmt(ImportStmt stmt) {
+    Path directory = importChain.isEmpty()
+      ? Paths.get("")
+      : importChain.get(importChain.size() - 1).getParent();
+    ModuleCache.Module module = modules().load(ModuleCache.resolve(directory, stmt));
+    modules().importInto(currentScope, module, this, stmt.path);
+    return null;
+  }
+
   @Override
   public Void execPrintStmt(PrintStmt stmt) {
-    System.out.println(evaluate(stmt.expr));
+    out.println(evaluate(stmt.expr));
     return null;
   }
 
@@ -377,7 +519,7 @@ class Interpreter implements Expr.Visitor<Object>,
   // Declares a function
   @Override
   public Void execFuncStmt(FuncStmt stmt) {
-    LoxFunction func = new LoxFunction(stmt.name, stmt.parameters, stmt.body, currentScope);
+    LoxFunction func = new LoxFunction(stmt, currentScope);
     currentScope.declare(stmt.name, func);
     return null;
   }
@@ -390,6 +532,15 @@ class Interpreter implements Expr.Visitor<Object>,
     throw new ReturnException(evaluate(stmt.expr));
   }
 
+  @Override
+  public Void execYieldStmt(YieldStmt stmt) {
+    if (generator == null) {
+      throw _runtimeError(stmt.indicator, "Cannot yield out of global scope.");
+    }
+    generator.yieldValue(evaluate(stmt.expr));
+    return null;
+  }
+
   @Override
   public Void execClassStmt(ClassStmt stmt) {
     LoxClass loxClass;
@@ -0,0 +1,99 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+Math natives the evaluator runs inline. When the Parser builds a call to a
+global named like one of these, with the right number of arguments, it tags
+the Call. evalCallExpr still evaluates the callee, and if it is the native
+itself (so the name hasn't been reassigned or shadowed) computes the result
+directly: no LoxCallable.call, no argument List, no MethodHandle, and
+nothing pushed on the call stack.
+
+Anything else about the call (a wrong argument type, say) behaves as if the
+native had been called.
+*/
+enum Intrinsic {
+  SQRT("sqrt", 1), CBRT("cbrt", 1), FLOOR("floor", 1), CEIL("ceil", 1),
+  ROUND("round", 1), ABS("abs", 1), EXP("exp", 1), LOG("log", 1),
+  SIN("sin", 1), COS("cos", 1), TAN("tan", 1), ATAN("atan", 1),
+  POW("pow", 2), ATAN2("atan2", 2), MIN("min", 2), MAX("max", 2),
+  RANDOM("random", 0);
+
+  private static final Map<Symbol, Intrinsic> byName = new HashMap<>();
+  static {
+    for (Intrinsic intrinsic : values()) {
+      byName.put(Symbol.intern(intrinsic.nativeName), intrinsic);
+    }
+  }
+
+  Intrinsic(String nativeName, int arity) {
+    this.nativeName = nativeName;
+    this.arity = arity;
+    this.callable = find(nativeName);
+  }
+
+  private final String nativeName;
+  final int arity;
+  // The global the call must resolve to.
+  final LoxCallable callable;
+
+  private static LoxCallable find(String name) {
+    for (LoxCallable callable : NativeBinding.natives(NativeFunctions.class)) {
+      if (((NativeFunction) callable).name.equals(name)) return callable;
+    }
+    throw new IllegalStateException("No native " + name);
+  }
+
+  // The intrinsic `callee(arguments)` may be, or null.
+  static Intrinsic recognize(Expr callee, int arguments) {
+    if (!(callee instanceof Var)) return null;
+    Intrinsic intrinsic = byName.get(((Var) callee).name.literal);
+    return intrinsic != null && intrinsic.arity == arguments ? intrinsic : null;
+  }
+
+  Object evaluate(Interpreter interpreter, List<Expr> arguments) {
+    switch (arity) {
+      case 0:
+        return NativeFunctions.random(interpreter);
+      case 1:
+        return apply(number(interpreter, interpreter.evaluate(arguments.get(0))), 0);
+      default:
+        Object x = interpreter.evaluate(arguments.get(0));
+        Object y = interpreter.evaluate(arguments.get(1));
+        return apply(number(interpreter, x), number(interpreter, y));
+    }
+  }
+
+  // The native's own method, so the two can't disagree.
+  private double apply(double x, double y) {
+    switch (this) {
+      case SQRT: return NativeFunctions.sqrt(x);
+      case CBRT: return NativeFunctions.cbrt(x);
+      case FLOOR: return NativeFunctions.floor(x);
+      case CEIL: return NativeFunctions.ceil(x);
+      case ROUND: return NativeFunctions.round(x);
+      case ABS: return NativeFunctions.abs(x);
+      case EXP: return NativeFunctions.exp(x);
+      case LOG: return NativeFunctions.log(x);
+      case SIN: return NativeFunctions.sin(x);
+      case COS: return NativeFunctions.cos(x);
+      case TAN: return NativeFunctions.tan(x);
+      case ATAN: return NativeFunctions.atan(x);
+      case POW: return NativeFunctions.pow(x, y);
+      case ATAN2: return NativeFunctions.atan2(x, y);
+      case MIN: return NativeFunctions.min(x, y);
+      case MAX: return NativeFunctions.max(x, y);
+      default: throw new IllegalStateException(nativeName);
+    }
+  }
+
+  private double number(Interpreter interpreter, Object value) {
+    if (value instanceof Double) return (Double) value;
+    // The same error the native reports; see BoundNative.
+    String message = new InterpreterCastException("double", ConcatString.flatten(value)).getMessage();
+    throw NativeFunctions.error(interpreter, String.format("%s: %s", callable, message));
+  }
+}
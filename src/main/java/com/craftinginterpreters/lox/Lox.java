@@ -3,116 +3,242 @@ package com.craftinginterpreters.lox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 public class Lox {
-  private static final Interpreter interpreter = new Interpreter();
-  static boolean hadError = false;
-  static boolean hadRuntimeError = false;
+  // Files at least this large are always scanned with parseMapped.
+  static final long MAPPED_THRESHOLD = 64L << 20;
+  // Sources at least this large are scanned with a ParallelScanner.
+  static final int PARALLEL_SCAN_THRESHOLD = 4 << 20;
 
   public static void main(String[] args) throws IOException {
-    if (args.length > 1) {
-      System.out.println("Usage: jlox [script]");
+    Options options = Options.parse(args);
+    if (options == null || options.scripts.size() > 1) {
+      System.out.println("Usage: jlox [--lazy] [--mmap | --pipeline] [--cache | --cache-dir=DIR]");
+      System.out.println("            [--out=FILE] [--flush=line|size] [--memoize[=ENTRIES]] [script]");
       System.exit(64); // [64]
-    } else if (args.length == 1) {
-      runFile(args[0]);
-    } else {
-      runPrompt();
     }
+
+    OutputSink output = newOutput(options);
+    int status = 0;
+    try {
+      if (options.pipelined) {
+        Path file = options.scripts.isEmpty() ? null : Paths.get(options.scripts.get(0));
+        Reader input = file == null
+          ? new InputStreamReader(System.in)
+          : Files.newBufferedReader(file, Charset.defaultCharset());
+        status = runPipelined(new ReaderSource(input), file, options, output);
+      } else if (options.scripts.size() == 1) {
+        status = runFile(options.scripts.get(0), options, output);
+      } else {
+        runPrompt();
+      }
+    } finally {
+      if (options.outputFile != null) {
+        output.close();
+      } else {
+        output.flush();
+      }
+    }
+    if (status != 0) System.exit(status);
+  }
+  // Buffers script output unless it goes straight to a terminal. The REPL
+  // always prints through OutputSink.SYSTEM_OUT.
+  private static OutputSink newOutput(Options options) throws IOException {
+    OutputSink.Flush flush = options.flush;
+    if (flush == null) {
+      boolean interactive = options.outputFile == null && System.console() != null;
+      flush = interactive ? OutputSink.Flush.LINE : OutputSink.Flush.SIZE;
+    }
+    OutputStream stream = options.outputFile == null
+      ? System.out
+      : Files.newOutputStream(options.outputFile);
+    return new OutputSink(new OutputStreamWriter(stream, Charset.defaultCharset()), flush,
+      OutputSink.DEFAULT_BUFFER_SIZE);
   }
-  private static void runFile(String path) throws IOException {
-    byte[] bytes = Files.readAllBytes(Paths.get(path));
-    run(new String(bytes, Charset.defaultCharset()));
+  // Returns the exit status.
+  private static int runFile(String path, Options options, OutputSink output) throws IOException {
+    Path file = Paths.get(path);
+    ErrorReporter reporter = new ErrorReporter();
+
+    List<Statement> statements;
+    if (options.mapped || Files.size(file) >= MAPPED_THRESHOLD) {
+      statements = parseMapped(file, reporter, options.lazyBodies);
+    } else {
+      statements = parseCached(file, options, reporter);
+    }
+
+    // Stop if there was a syntax error.
+    if (!reporter.hadError) {
+      Interpreter interpreter = newInterpreter(file, options, reporter);
+      interpreter.out = output;
+      interpreter.modules().prefetch(statements, interpreter.importChain.get(0).getParent());
+      execute(statements, interpreter);
+    }
 
     // Indicate an error in the exit code.
-    if (hadError) System.exit(65);
+    if (reporter.hadError) return 65;
 
     // (alin) UNCOMMENT
-    // if (hadRuntimeError) System.exit(70);
+    // if (reporter.hadRuntimeError) return 70;
+    return 0;
+  }
+  // Executes each top-level statement as soon as it has been parsed. Stops
+  // at the first syntax error, after running everything before it. Returns
+  // the exit status.
+  private static int runPipelined(SourceText source, Path file, Options options, OutputSink output) {
+    ErrorReporter reporter = new ErrorReporter();
+    Interpreter interpreter = file == null ? new Interpreter(reporter) : newInterpreter(file, options, reporter);
+    interpreter.out = output;
+    interpreter.memoCapacity = options.memoCapacity;
+    new Pipeline(source, reporter, options.lazyBodies).run(interpreter);
+
+    return reporter.hadError ? 65 : 0;
+  }
+  // An Interpreter for the main script. It gets its own ModuleCache, so
+  // modules it imports follow the same command line options.
+  private static Interpreter newInterpreter(Path file, Options options, ErrorReporter reporter) {
+    Interpreter interpreter = new Interpreter(reporter);
+    interpreter.memoCapacity = options.memoCapacity;
+    interpreter.modules = new ModuleCache(ForkJoinPool.commonPool(), options.lazyBodies);
+    interpreter.importChain.add(file.toAbsolutePath().normalize());
+    return interpreter;
   }
   private static void runPrompt() throws IOException {
     InputStreamReader input = new InputStreamReader(System.in);
     BufferedReader reader = new BufferedReader(input);
+    ErrorReporter reporter = new ErrorReporter();
+    Interpreter interpreter = new Interpreter(reporter);
 
     for (;;) { // [repl]
       System.out.print("> ");
       String line = reader.readLine();
       if (line == null) break;
-      run(line);
-      hadError = false;
+      run(line, interpreter, reporter);
+      reporter.reset();
+    }
+  }
+  private static List<Statement> parseCached(Path file, Options options, ErrorReporter reporter)
+      throws IOException {
+    ScriptCache cache = options.cache;
+    byte[] bytes = Files.readAllBytes(file);
+    List<Statement> statements = null;
+    if (cache != null) {
+      statements = cache.load(file, bytes);
+    }
+    if (statements == null) {
+      statements = parse(new String(bytes, Charset.defaultCharset()), reporter, options.lazyBodies);
+      if (cache != null && !reporter.hadError) {
+        cache.store(file, bytes, statements);
+      }
     }
+    return statements;
   }
-  private static void run(String source) {
-    Scanner scanner = new Scanner(source);
-    List<Token> tokens = scanner.scanTokens();
-    Parser parser = new Parser(tokens);
-    List<Statement> statements = parser.parse();
+  // Scans straight out of a memory mapping, handing tokens to the Parser as
+  // they are produced. Neither the whole source nor the whole token list is
+  // ever held in memory.
+  static List<Statement> parseMapped(Path file, ErrorReporter reporter, boolean lazyBodies)
+      throws IOException {
+    try (MappedSource source = new MappedSource(file, Charset.defaultCharset())) {
+      Scanner scanner = new Scanner(source, reporter);
+      Parser parser = new Parser(new ScannerTokenSource(scanner), reporter, lazyBodies);
+      return parser.parse();
+    }
+  }
+  // Each call only touches the state it is handed, so separate interpreters
+  // can run concurrently on different threads.
+  static void run(String source, Interpreter interpreter, ErrorReporter reporter) {
+    List<Statement> statements = parse(source, reporter);
 
     // Stop if there was a syntax error.
-    if (hadError) return;
-    
+    if (reporter.hadError) return;
+
+    execute(statements, interpreter);
+  }
+  static List<Statement> parse(String source, ErrorReporter reporter) {
+    return parse(source, reporter, false);
+  }
+  static List<Statement> parse(String source, ErrorReporter reporter, boolean lazyBodies) {
+    boolean parallel = source.length() >= PARALLEL_SCAN_THRESHOLD
+      && ForkJoinPool.getCommonPoolParallelism() > 1;
+    TokenBuffer tokens = parallel
+      ? new ParallelScanner(source, reporter, ForkJoinPool.commonPool()).scanTokens()
+      : new Scanner(source, reporter).scanTokenBuffer();
+    Parser parser = new Parser(tokens.cursor(), reporter, lazyBodies);
+    return parser.parse();
+  }
+  static void execute(List<Statement> statements, Interpreter interpreter) {
     // // parser debugging
     // for (Statement stmt : statements) {
-    //   stmt.print();
+    //   AstPrinter.print(stmt);
     // }
     for (Statement stmt : statements) {
       interpreter.interpret(stmt);
     }
   }
-  static void error(int line, String message) {
-    report(line, "", message);
-  }
 
-  private static void report(int line, String where,
-                             String message) {
-    System.err.println(
-        "[line " + line + "] Error" + where + ": " + message);
-    hadError = true;
-  }
-  static void error(Token token, String message) {
-    if (token.type == TokenType.EOF) {
-      report(token.line, " at end", message);
-    } else {
-      report(token.line, " at '" + token.lexeme + "'", message);
-    }
-  }
-  static void runtimeError(RuntimeError error) {
-    System.err.println("\n[RUNTIME ERROR]");
-    printDebugInfo(error.debugInfo);
-    System.err.println(error.getMessage() +
-        "\n[line " + error.token.line + "]");
-    hadRuntimeError = true;
-  }
-  static void assertionError(AssertionError error) {
-    System.err.println("\n[ASSERTION ERROR]");
-    printDebugInfo(error.debugInfo);
-    System.err.println(error.getMessage());
-    hadRuntimeError = true;
-  }
-  // TODO: modify javaError to encapsulate debugInfo
-  static void javaError(JavaError error, DebugInfo debugInfo) {
-    System.err.println("\n[FATAL]");
-    printDebugInfo(debugInfo);
-    error.error.printStackTrace();
-    System.err.println(error.error);
-    hadRuntimeError = true;
-  }
-
-  static void printDebugInfo(DebugInfo debugInfo) {
-    for (Statement stmt : debugInfo.executionStack) {
-      System.err.printf("[line %s]\n", stmt.indicator.line);
-      stmt.print();
-    }
+  // Command line flags. Anything not starting with "--" is a script path.
+  static class Options {
+    final List<String> scripts = new ArrayList<>();
+    ScriptCache cache = null;
+    boolean mapped = false;
+    // Scan, parse and execute concurrently. Without a script, reads stdin.
+    boolean pipelined = false;
+    // Parse function bodies on first call, for faster startup. A syntax
+    // error in a body is then only found if the function is called, and is
+    // raised as a runtime error instead of stopping the script before it runs.
+    boolean lazyBodies = false;
+    // Where `print` writes, instead of stdout.
+    Path outputFile = null;
+    // Null picks a policy to suit stdout; see newOutput.
+    OutputSink.Flush flush = null;
+    // Cache the results of pure functions, up to this many per function.
+    int memoCapacity = 0;
 
-    System.err.println("Call stack:");
-    for (LoxCallable callable : debugInfo.callStack) {
-      System.err.println("  " + callable);
+    static Options parse(String[] args) {
+      Options options = new Options();
+      for (String arg : args) {
+        if (arg.equals("--lazy")) {
+          options.lazyBodies = true;
+        } else if (arg.equals("--pipeline")) {
+          options.pipelined = true;
+        } else if (arg.equals("--mmap")) {
+          options.mapped = true;
+        } else if (arg.equals("--cache")) {
+          options.cache = new ScriptCache(null);
+        } else if (arg.startsWith("--cache-dir=")) {
+          options.cache = new ScriptCache(Paths.get(arg.substring("--cache-dir=".length())));
+        } else if (arg.startsWith("--out=")) {
+          options.outputFile = Paths.get(arg.substring("--out=".length()));
+        } else if (arg.equals("--flush=line")) {
+          options.flush = OutputSink.Flush.LINE;
+        } else if (arg.equals("--flush=size")) {
+          options.flush = OutputSink.Flush.SIZE;
+        } else if (arg.equals("--memoize")) {
+          options.memoCapacity = Memo.DEFAULT_CAPACITY;
+        } else if (arg.startsWith("--memoize=")) {
+          try {
+            options.memoCapacity = Integer.parseInt(arg.substring("--memoize=".length()));
+          } catch (NumberFormatException e) {
+            return null;
+          }
+          if (options.memoCapacity <= 0) return null;
+        } else if (arg.startsWith("--")) {
+          return null;
+        } else {
+          options.scripts.add(arg);
+        }
+      }
+      return options;
     }
-
-    System.err.println("Environment:");
-    debugInfo.environment.print();
   }
 }
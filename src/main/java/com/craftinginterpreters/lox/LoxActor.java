@@ -0,0 +1,203 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+An isolate that owns some state and changes it only by handling messages,
+one at a time:
+
+  fun count(total, n) { return total + n; }
+  var counter = actor(count, 0);
+  send(counter, 1);
+  send(counter, 2);
+  print actor_wait(counter); // 3
+
+Each message is handled by calling `handler(state, message)`, whose result
+is the new state. Nothing else can reach the state, so actors never race.
+
+An actor has its own Interpreter, marked isolated (see Parallel), and its
+own global scope. That scope sits over the built-ins, which every actor
+shares but none can assign to; the handler sees nothing of the script that
+created it, so the functions it calls must be declared inside it.
+
+Messages and states cross between actors by value: they are deep-copied on
+the way in and out, so no two actors ever hold the same array or map. Only
+nil, booleans, numbers, strings, arrays, maps and actors can be sent;
+actors are sent as references.
+
+send() adds the copy to a lock-free mailbox and returns. Actors with mail
+are run on a fixed pool of threads, one per core, each for at most BATCH
+messages at a time, so a busy actor doesn't starve the others. An idle actor
+costs its state and an empty queue, so a script can keep tens of thousands.
+
+actor_queue_depth() counts the messages sent but not yet handled.
+actor_wait() waits until there are none and returns a copy of the state.
+The first error in a handler stops the actor: it drops its mail, refuses
+more, and actor_wait() throws the error.
+*/
+class LoxActor implements Runnable {
+  private static final int BATCH = 64;
+  private static final ExecutorService POOL =
+    Threads.pool("actor", Runtime.getRuntime().availableProcessors());
+  // Never assigned: actors are isolated.
+  private static final Scope BUILTINS = Interpreter.newGlobalScope();
+  // The actor the current thread is running, if any.
+  private static final ThreadLocal<LoxActor> RUNNING = new ThreadLocal<>();
+
+  static LoxActor start(Interpreter creator, LoxFunction handler, Object state) {
+    Interpreter interpreter = new Interpreter(creator.reporter, new Scope(BUILTINS));
+    interpreter.out = creator.out;
+    interpreter.modules = creator.modules();
+    interpreter.importChain = new ArrayList<>(creator.importChain);
+    interpreter.memoCapacity = creator.memoCapacity;
+    interpreter.random = new Random(creator.random().nextLong());
+    interpreter.isolated = true;
+    LoxFunction isolated = new LoxFunction(handler.declaration, interpreter.currentScope);
+    return new LoxActor(interpreter, isolated, copy(creator, state));
+  }
+
+  private LoxActor(Interpreter interpreter, LoxFunction handler, Object state) {
+    this.interpreter = interpreter;
+    this.handler = handler;
+    this.state = state;
+  }
+
+  private final Interpreter interpreter;
+  private final LoxFunction handler;
+  private final ConcurrentLinkedQueue<Object> mailbox = new ConcurrentLinkedQueue<>();
+  // Messages sent and not yet handled, including the one being handled.
+  private final AtomicInteger depth = new AtomicInteger();
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+  private Object state; // Guarded by `this`.
+  private volatile Throwable failure = null;
+
+  void send(Interpreter sender, Object message) {
+    if (failure != null) throw NativeFunctions.error(sender, "Cannot send to " + this + "; it has failed.");
+    Object copy = copy(sender, message);
+    // Count it first: once queued, it may be handled, and uncounted, at once.
+    depth.incrementAndGet();
+    mailbox.add(copy);
+    schedule();
+  }
+
+  int queueDepth() {
+    return depth.get();
+  }
+
+  // A copy of the state once every message sent so far has been handled.
+  synchronized Object await(Interpreter waiter) {
+    if (RUNNING.get() != null) {
+      // It could be waiting for a message only it would send, or hold the
+      // pool thread the other actor needs.
+      throw NativeFunctions.error(waiter, "An actor cannot wait for actors; send a message back instead.");
+    }
+    try {
+      while (depth.get() > 0) wait();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw NativeFunctions.error(waiter, "Interrupted while waiting for " + this + ".");
+    }
+    if (failure instanceof Error) throw (Error) failure;
+    if (failure != null) throw (RuntimeException) failure;
+    return copy(waiter, state);
+  }
+
+  private void schedule() {
+    if (scheduled.compareAndSet(false, true)) POOL.execute(this);
+  }
+
+  @Override
+  public void run() {
+    RUNNING.set(this);
+    try {
+      for (int i = 0; i < BATCH; i++) {
+        Object message = mailbox.poll();
+        if (message == null) break;
+        receive(message);
+      }
+    } finally {
+      RUNNING.remove();
+      scheduled.set(false);
+    }
+    // Mail that arrived after the last poll, or that didn't fit the batch.
+    if (!mailbox.isEmpty()) schedule();
+  }
+
+  private synchronized void receive(Object message) {
+    try {
+      if (failure == null) state = interpreter.callFunction(handler, pair(state, message));
+    } catch (RuntimeException | Error e) {
+      failure = e;
+    } finally {
+      if (depth.decrementAndGet() == 0) notifyAll();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "<actor " + handler.token.lexeme + ">";
+  }
+
+  // `value`, with every array and map in it copied.
+  static Object copy(Interpreter interpreter, Object value) {
+    return copy(interpreter, value, new IdentityHashMap<>());
+  }
+
+  private static Object copy(Interpreter interpreter, Object value, Map<Object, Object> copies) {
+    value = ConcatString.flatten(value);
+    if (value == null || value instanceof Boolean || value instanceof Double
+        || value instanceof String || value instanceof LoxActor) {
+      return value;
+    }
+    Object copied = copies.get(value);
+    if (copied != null) return copied;
+
+    // Take each array and map's contents under its lock, and copy them after,
+    // so no two locks are ever held at once.
+    if (value instanceof LoxArray) {
+      LoxArray array = (LoxArray) value;
+      Object[] elements;
+      synchronized (array) {
+        elements = new Object[array.length()];
+        for (int i = 0; i < elements.length; i++) elements[i] = array.get(i);
+      }
+      LoxArray copy = new LoxArray(elements.length);
+      copies.put(array, copy);
+      for (Object element : elements) copy.push(copy(interpreter, element, copies));
+      return copy;
+    } else if (value instanceof LoxMap) {
+      LoxMap map = (LoxMap) value;
+      List<Object> entries = new ArrayList<>();
+      synchronized (map) {
+        for (int slot = map.nextSlot(0); slot >= 0; slot = map.nextSlot(slot + 1)) {
+          entries.add(map.keyAt(slot));
+          entries.add(map.valueAt(slot));
+        }
+      }
+      LoxMap copy = new LoxMap();
+      copies.put(map, copy);
+      for (int i = 0; i < entries.size(); i += 2) {
+        copy.set(copy(interpreter, entries.get(i), copies), copy(interpreter, entries.get(i + 1), copies));
+      }
+      return copy;
+    }
+    throw NativeFunctions.error(interpreter, String.format(
+      "Cannot send %s to an actor; only nil, booleans, numbers, strings, arrays, maps and actors can be sent.",
+      value));
+  }
+
+  private static List<Object> pair(Object a, Object b) {
+    List<Object> pair = new ArrayList<>(2);
+    pair.add(a);
+    pair.add(b);
+    return pair;
+  }
+}
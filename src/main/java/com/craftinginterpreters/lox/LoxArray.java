@@ -0,0 +1,84 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+/*
+A growable array, created and used through the array natives.
+
+While every element is a number, elements are stored unboxed in a double[].
+Storing anything else moves them all to an Object[], for good. Callers check
+indices; see NativeFunctions.
+
+Not thread-safe itself. The natives lock the array for each operation, so
+tasks can share arrays; see LoxTask.
+*/
+class LoxArray {
+  private static final int MIN_CAPACITY = 8;
+
+  LoxArray(int capacity) {
+    this.numbers = new double[Math.max(capacity, MIN_CAPACITY)];
+  }
+
+  private double[] numbers; // Null once any element isn't a number.
+  private Object[] objects = null;
+  private int size = 0;
+
+  int length() {
+    return size;
+  }
+
+  Object get(int index) {
+    return numbers != null ? (Object) numbers[index] : objects[index];
+  }
+
+  void set(int index, Object value) {
+    if (numbers != null) {
+      if (value instanceof Double) {
+        numbers[index] = (Double) value;
+        return;
+      }
+      generalize();
+    }
+    objects[index] = value;
+  }
+
+  void push(Object value) {
+    int capacity = numbers != null ? numbers.length : objects.length;
+    if (size == capacity) grow(capacity * 2);
+    size++;
+    set(size - 1, value);
+  }
+
+  Object pop() {
+    Object value = get(size - 1);
+    if (objects != null) objects[size - 1] = null;
+    size--;
+    return value;
+  }
+
+  private void generalize() {
+    objects = new Object[numbers.length];
+    for (int i = 0; i < size; i++) {
+      objects[i] = numbers[i];
+    }
+    numbers = null;
+  }
+
+  private void grow(int capacity) {
+    if (numbers != null) {
+      numbers = Arrays.copyOf(numbers, capacity);
+    } else {
+      objects = Arrays.copyOf(objects, capacity);
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("[");
+    for (int i = 0; i < size; i++) {
+      if (i > 0) builder.append(", ");
+      builder.append(get(i) == this ? "[...]" : get(i));
+    }
+    return builder.append("]").toString();
+  }
+}
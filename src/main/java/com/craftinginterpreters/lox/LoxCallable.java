@@ -1,12 +1,33 @@
 package com.craftinginterpreters.lox;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 interface LoxCallable {
   int arity();
   Object call(Interpreter interpreter, List<Object> arguments);
 
+  // Calls with exactly 0 to 3 arguments, which evalCallExpr uses instead of
+  // building a List. Override them to take the arguments directly; by
+  // default they fall back to call().
+  default Object call0(Interpreter interpreter) {
+    return call(interpreter, Collections.emptyList());
+  }
+
+  default Object call1(Interpreter interpreter, Object a) {
+    return call(interpreter, Collections.singletonList(a));
+  }
+
+  default Object call2(Interpreter interpreter, Object a, Object b) {
+    return call(interpreter, Arrays.asList(a, b));
+  }
+
+  default Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+    return call(interpreter, Arrays.asList(a, b, c));
+  }
+
   default boolean isValidArity(int numArgs) {
     return arity() == numArgs;
   }
@@ -29,16 +50,16 @@ abstract class Fieldable extends Printable {
 }
 
 class LoxFunction implements LoxCallable {
-  LoxFunction(Token token, Series<Var> parameters, BlockStmt body, Scope environment) {
-    this.token = token;
-    this.parameters = parameters;
-    this.body = body;
+  LoxFunction(FuncStmt declaration, Scope environment) {
+    this.token = declaration.name;
+    this.parameters = declaration.parameters;
+    this.declaration = declaration;
     this.environment = environment.copyReferences();
   }
 
   final Token token;
   final Series<Var> parameters;
-  final BlockStmt body;
+  final FuncStmt declaration;
   final Scope environment;
 
   @Override
@@ -46,23 +67,130 @@ class LoxFunction implements LoxCallable {
     return parameters.members.size();
   }
 
+  // Set by the first call from an interpreter that memoizes. Stays null, and
+  // `impure` is set, if this function can't be memoized; see Purity.
+  private volatile Memo memo;
+  private volatile boolean impure = false;
+
   @Override
   public Object call(Interpreter interpreter, List<Object> arguments) {
+    return call(interpreter, this, arguments);
+  }
+
+  // `callee` is what was called: this function, or a LoxMethod bound to it.
+  // A generator's thread puts it on its call stack, for `this`.
+  Object call(Interpreter interpreter, LoxCallable callee, List<Object> arguments) {
+    Memo memo = memo(interpreter);
+    if (memo != null) return memo.call(interpreter, this, arguments);
+    return invoke(interpreter, callee, arguments);
+  }
+
+  // Calls the function, bypassing its Memo.
+  Object invoke(Interpreter interpreter, List<Object> arguments) {
+    return invoke(interpreter, this, arguments);
+  }
+
+  private Object invoke(Interpreter interpreter, LoxCallable callee, List<Object> arguments) {
+    BlockStmt body = body(interpreter);
+    if (declaration.isGenerator()) return LoxGenerator.start(interpreter, callee, this, arguments);
+    return execute(interpreter, body, arguments);
+  }
+
+  // Runs the body, even if it is a generator's; see LoxGenerator.
+  Object execute(Interpreter interpreter, List<Object> arguments) {
+    return execute(interpreter, body(interpreter), arguments);
+  }
+
+  private Object execute(Interpreter interpreter, BlockStmt body, List<Object> arguments) {
+    Scope frame = enter(interpreter);
+    // Initialize function parameters
+    for (int i=0; i<arguments.size(); i++) {
+      frame.declare(
+        parameters.get(i).name, 
+        arguments.get(i)
+      );
+    }
+    return run(interpreter, body);
+  }
+
+  @Override
+  public Object call0(Interpreter interpreter) {
+    return call(interpreter, this, 0, null, null, null);
+  }
+
+  @Override
+  public Object call1(Interpreter interpreter, Object a) {
+    return call(interpreter, this, 1, a, null, null);
+  }
+
+  @Override
+  public Object call2(Interpreter interpreter, Object a, Object b) {
+    return call(interpreter, this, 2, a, b, null);
+  }
+
+  @Override
+  public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+    return call(interpreter, this, 3, a, b, c);
+  }
+
+  // Calls with `count` arguments, at most three; the unused ones are null.
+  // Unless memoized or a generator, binds them straight into the new frame.
+  Object call(Interpreter interpreter, LoxCallable callee, int count, Object a, Object b, Object c) {
+    Memo memo = memo(interpreter);
+    BlockStmt body = body(interpreter);
+    // Both take their arguments as a List.
+    if (memo != null || declaration.isGenerator()) {
+      List<Object> arguments = Arrays.asList(a, b, c).subList(0, count);
+      return call(interpreter, callee, arguments);
+    }
+    Scope frame = enter(interpreter);
+    if (count > 0) frame.declare(parameters.get(0).name, a);
+    if (count > 1) frame.declare(parameters.get(1).name, b);
+    if (count > 2) frame.declare(parameters.get(2).name, c);
+    return run(interpreter, body);
+  }
+
+  // The Memo to call through, or null to run the body.
+  private Memo memo(Interpreter interpreter) {
+    if (interpreter.memoCapacity == 0 || impure) return null;
+    Memo current = memo;
+    if (current != null && current.isCurrent()) return current;
+
+    // First call, or something this function calls has been reassigned.
+    List<Variable> dependencies = Purity.analyze(this);
+    if (dependencies == null) {
+      impure = true;
+      memo = null;
+      return null;
+    }
+    current = new Memo(dependencies, interpreter.memoCapacity);
+    memo = current;
+    return current;
+  }
+
+  // For memo_stats(). Null if no call has been memoized.
+  Memo memo() {
+    return memo;
+  }
+
+  private BlockStmt body(Interpreter interpreter) {
+    try {
+      return declaration.body();
+    } catch (ParseError e) {
+      throw new RuntimeError(token, e.getMessage()).withInterpreterState(interpreter);
+    }
+  }
+
+  private Scope enter(Interpreter interpreter) {
     // Set the calling scope. It is the caller's responsibility to reset the scope.
     interpreter.currentScope = new Scope(environment);
-    
-    // Recursion depth is checked for user-defined LoxFunctions but `callStack` is set by evalCall
-    // for all LoxCallables. hmm...
+    return interpreter.currentScope;
+  }
 
+  // Recursion depth is checked for user-defined LoxFunctions but `callStack` is set by evalCall
+  // for all LoxCallables. hmm...
+  private Object run(Interpreter interpreter, BlockStmt body) {
     try {
-      // Initialize function parameters
-      for (int i=0; i<arguments.size(); i++) {
-        interpreter.currentScope.declare(
-          parameters.get(i).name, 
-          arguments.get(i)
-        );
-      }
-
       // Execute function body
       for (Statement stmt : body.statements) {
         interpreter.execute(stmt);
@@ -108,7 +236,27 @@ class LoxMethod implements LoxCallable {
 
   @Override
   public Object call(Interpreter interpreter, List<Object> arguments) {
-    return function.call(interpreter, arguments);
+    return function.call(interpreter, this, arguments);
+  }
+
+  @Override
+  public Object call0(Interpreter interpreter) {
+    return function.call(interpreter, this, 0, null, null, null);
+  }
+
+  @Override
+  public Object call1(Interpreter interpreter, Object a) {
+    return function.call(interpreter, this, 1, a, null, null);
+  }
+
+  @Override
+  public Object call2(Interpreter interpreter, Object a, Object b) {
+    return function.call(interpreter, this, 2, a, b, null);
+  }
+
+  @Override
+  public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+    return function.call(interpreter, this, 3, a, b, c);
   }
 
   public String toString() {
@@ -139,7 +287,7 @@ class LoxClass extends Fieldable implements LoxCallable {
       fields.declare(stmt.name, interpreter.evaluate(stmt.expr));
     }
     for (FuncStmt stmt : classStmt.methods) {
-      LoxFunction method = new LoxFunction(stmt.name, stmt.parameters, stmt.body, environment);
+      LoxFunction method = new LoxFunction(stmt, environment);
 
       if (stmt.name.lexeme.equals(INIT)) {
         _constructor = method;
@@ -189,19 +337,22 @@ class LoxInstance extends Fieldable {
     }
     this.constructor = _constructor;
 
-    for (String name : this.fields.locals.keySet()) {
-      Object value = this.fields.locals.get(name).value;
+    for (Map.Entry<Symbol, Variable> entry : this.fields.locals.entrySet()) {
+      Object value = entry.getValue().value;
       if (value instanceof LoxFunction) {
         LoxFunction classMethod = (LoxFunction) value;
-        this.fields._declare(name, new LoxMethod(classMethod, this));
+        entry.setValue(new Variable(new LoxMethod(classMethod, this)));
       }
     }
-    
-    this._printables = Arrays.asList(fields);
   }
   final Token classToken;
   final LoxCallable constructor;
 
+  @Override
+  List<Printable> children() {
+    return Arrays.asList(fields);
+  }
+
   public String toString() {
     return "<" + classToken.lexeme + "@" + Integer.toHexString(System.identityHashCode(this)) + ">";
   }
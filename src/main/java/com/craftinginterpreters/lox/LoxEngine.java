@@ -0,0 +1,146 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Embedding API: scan and parse a script once, then execute it as many times
+// as needed. Errors are collected into Diagnostics instead of being printed.
+public final class LoxEngine {
+  private LoxEngine() {}
+
+  public static CompiledProgram compile(String source) {
+    CollectingReporter reporter = new CollectingReporter();
+    List<Statement> statements = Lox.parse(source, reporter);
+    return new CompiledProgram(statements, reporter.diagnostics());
+  }
+
+  // The parsed program. The AST is never mutated by the Interpreter, so a
+  // single CompiledProgram can be executed concurrently from many threads.
+  public static final class CompiledProgram {
+    private final List<Statement> statements;
+    private final List<Diagnostic> errors;
+
+    private CompiledProgram(List<Statement> statements, List<Diagnostic> errors) {
+      this.statements = Collections.unmodifiableList(new ArrayList<>(statements));
+      this.errors = Collections.unmodifiableList(new ArrayList<>(errors));
+    }
+
+    public boolean hasErrors() {
+      return !errors.isEmpty();
+    }
+
+    // Syntax errors found while compiling.
+    public List<Diagnostic> errors() {
+      return errors;
+    }
+
+    // Runs the program in a fresh global environment.
+    public Result execute() {
+      if (hasErrors()) {
+        return new Result(errors, null);
+      }
+
+      CollectingReporter reporter = new CollectingReporter();
+      Interpreter interpreter = new Interpreter(reporter);
+      for (Statement stmt : statements) {
+        interpreter.interpret(stmt);
+      }
+      return new Result(reporter.diagnostics(), interpreter.currentScope.getGlobal());
+    }
+
+    List<Statement> statements() {
+      return statements;
+    }
+  }
+
+  public static final class Result {
+    private final List<Diagnostic> errors;
+    private final Scope globals;
+
+    private Result(List<Diagnostic> errors, Scope globals) {
+      this.errors = Collections.unmodifiableList(new ArrayList<>(errors));
+      this.globals = globals;
+    }
+
+    public boolean succeeded() {
+      return errors.isEmpty();
+    }
+
+    public List<Diagnostic> errors() {
+      return errors;
+    }
+
+    // The value of a global variable after execution. Throws if the program
+    // never ran or the variable was never declared.
+    public Object getGlobal(String name) {
+      Variable variable = globals == null ? null : globals._local(name);
+      if (variable == null) {
+        throw new IllegalArgumentException(String.format("Global '%s' not defined.", name));
+      }
+      return LoxScriptEngine.fromLox(variable.value);
+    }
+  }
+
+  public static final class Diagnostic {
+    public enum Kind { SYNTAX, RUNTIME, ASSERTION, INTERNAL }
+
+    public final Kind kind;
+    public final int line; // -1 when the error has no source location.
+    public final String message;
+
+    Diagnostic(Kind kind, int line, String message) {
+      this.kind = kind;
+      this.line = line;
+      this.message = message;
+    }
+
+    @Override
+    public String toString() {
+      String where = line < 0 ? "" : "[line " + line + "] ";
+      return where + kind + ": " + message;
+    }
+  }
+
+  // Records errors instead of printing them to stderr. Like the base class,
+  // it locks each report: tasks on other threads may report into it.
+  static class CollectingReporter extends ErrorReporter {
+    private final List<Diagnostic> diagnostics = new ArrayList<>(); // Guarded by `this`.
+
+    // The errors reported so far.
+    synchronized List<Diagnostic> diagnostics() {
+      return new ArrayList<>(diagnostics);
+    }
+
+    @Override
+    synchronized void report(int line, String where, String message) {
+      diagnostics.add(new Diagnostic(Diagnostic.Kind.SYNTAX, line, "Error" + where + ": " + message));
+      hadError = true;
+    }
+
+    @Override
+    synchronized void runtimeError(RuntimeError error) {
+      diagnostics.add(new Diagnostic(Diagnostic.Kind.RUNTIME, error.token.line, error.getMessage()));
+      hadRuntimeError = true;
+    }
+
+    @Override
+    synchronized void assertionError(AssertionError error) {
+      diagnostics.add(new Diagnostic(Diagnostic.Kind.ASSERTION, lineOf(error.debugInfo), error.getMessage()));
+      hadRuntimeError = true;
+    }
+
+    @Override
+    synchronized void javaError(JavaError error, DebugInfo debugInfo) {
+      diagnostics.add(new Diagnostic(Diagnostic.Kind.INTERNAL, lineOf(debugInfo), error.error.toString()));
+      hadRuntimeError = true;
+    }
+
+    private static int lineOf(DebugInfo debugInfo) {
+      if (debugInfo == null || debugInfo.executionStack.isEmpty()) {
+        return -1;
+      }
+      return debugInfo.executionStack.peek().indicator.line;
+    }
+  }
+}
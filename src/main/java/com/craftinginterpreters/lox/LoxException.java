@@ -39,7 +39,7 @@ class ParseError extends LoxException {
 
 class InterpreterCastException extends LoxException {
   public InterpreterCastException(String javaType, Object obj) {
-    super(String.format("Cannot cast %s (type: %s) to %s.", obj, obj.getClass().getName(), javaType));
+    super(String.format("Cannot cast %s (type: %s) to %s.", obj, obj == null ? "nil" : obj.getClass().getName(), javaType));
   }
 }
 
@@ -0,0 +1,163 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.ref.Cleaner;
+import java.util.List;
+import java.util.concurrent.SynchronousQueue;
+
+/*
+What calling a function that contains `yield` returns. Nothing runs until
+the first next(), which runs the body up to its first `yield` and returns
+the value yielded. Each next() after that resumes the body where it left off
+and runs it to the following `yield`:
+
+  fun count(n) {
+    for (var i = 0; i < n; i = i + 1) yield i;
+  }
+  var numbers = count(3);
+  for (var n = numbers.next(); !numbers.done(); n = numbers.next()) print n;
+
+Once the body returns, done() is true and next() returns nil. A `return`
+value is ignored. An error in the body is thrown by the next() that ran into
+it.
+
+The body runs on a thread of its own (see Threads), in a fork of the calling
+interpreter. next() hands control over to it and waits until it yields, so
+only one of the two ever runs and values are passed one at a time, never
+buffered. A generator that is dropped before it is done gets its thread
+interrupted, which unwinds the body without running any more of it.
+*/
+class LoxGenerator {
+  private static final Cleaner CLEANER = Cleaner.create();
+
+  // A new generator running `function` as a Lox object with next() and done().
+  // `callee` is what was called, `function` or a LoxMethod bound to it.
+  static HostObject start(Interpreter caller, LoxCallable callee, LoxFunction function, List<Object> arguments) {
+    Channel channel = new Channel(caller.fork(), callee, function, arguments);
+    HostObject object = NativeBinding.host(new LoxGenerator(channel));
+    // The channel and the generator's thread must not refer to `object`.
+    CLEANER.register(object, channel::cancel);
+    return object;
+  }
+
+  private LoxGenerator(Channel channel) {
+    this.channel = channel;
+  }
+
+  private final Channel channel;
+  private boolean done = false; // Guarded by `this`.
+
+  @LoxNative
+  synchronized Object next(Interpreter interpreter) {
+    if (done) return null;
+    Step step;
+    try {
+      step = channel.resume();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw NativeFunctions.error(interpreter, "Interrupted while waiting for a generator.");
+    }
+    if (step == Step.RETURNED) {
+      done = true;
+      return null;
+    } else if (step.failure != null) {
+      done = true;
+      if (step.failure instanceof Error) throw (Error) step.failure;
+      throw (RuntimeException) step.failure;
+    }
+    return step.value;
+  }
+
+  @LoxNative
+  synchronized boolean done() {
+    return done;
+  }
+
+  // What the generator's thread hands back to next().
+  private static final class Step {
+    static final Step RETURNED = new Step(null, null);
+
+    Step(Object value, Throwable failure) {
+      this.value = value;
+      this.failure = failure;
+    }
+
+    final Object value;
+    final Throwable failure;
+  }
+
+  // Thrown on the generator's thread when the generator is dropped. Like a
+  // ReturnException, it is not a LoxException, so no Lox code catches it.
+  private static final class Abandoned extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    Abandoned() {
+      super(null, null, false, false);
+    }
+  }
+
+  // The hand-off between next() and the body running on its thread.
+  static final class Channel implements Runnable {
+    private static final Object RESUME = new Object();
+
+    Channel(Interpreter interpreter, LoxCallable callee, LoxFunction function, List<Object> arguments) {
+      this.interpreter = interpreter;
+      this.callee = callee;
+      this.function = function;
+      this.arguments = arguments;
+      interpreter.generator = this;
+    }
+
+    private final Interpreter interpreter;
+    private final LoxCallable callee;
+    private final LoxFunction function;
+    private final List<Object> arguments;
+    private final SynchronousQueue<Object> resumes = new SynchronousQueue<>();
+    private final SynchronousQueue<Step> steps = new SynchronousQueue<>();
+    private volatile Thread thread = null;
+
+    // Runs the body to its next `yield`, or to its end.
+    Step resume() throws InterruptedException {
+      if (thread == null) {
+        thread = Threads.start("generator " + function.token.lexeme, this);
+      } else {
+        resumes.put(RESUME);
+      }
+      return steps.take();
+    }
+
+    // Called on the generator's thread by `yield`. Returns once the next
+    // next() is called.
+    void yieldValue(Object value) {
+      try {
+        steps.put(new Step(value, null));
+        resumes.take();
+      } catch (InterruptedException e) {
+        throw new Abandoned();
+      }
+    }
+
+    @Override
+    public void run() {
+      Step last;
+      try {
+        interpreter.callStack.push(callee);
+        function.execute(interpreter, arguments);
+        last = Step.RETURNED;
+      } catch (Abandoned e) {
+        return;
+      } catch (RuntimeException | Error e) {
+        last = new Step(null, e);
+      }
+      try {
+        steps.put(last);
+      } catch (InterruptedException e) {
+        // Dropped while finishing.
+      }
+    }
+
+    void cancel() {
+      Thread running = thread;
+      if (running != null) running.interrupt();
+    }
+  }
+}
@@ -0,0 +1,199 @@
+package com.craftinginterpreters.lox;
+
+/*
+A hash map, created and used through the map natives. Keys are compared the
+way `==` compares them: strings, numbers and booleans by value, everything
+else (instances, arrays, functions, ...) by identity. nil is not a key.
+
+Open addressing with linear probing over parallel arrays:
+- number keys are stored as their raw bits in a long[], never boxed;
+- every slot keeps its key's hash in an int[], so a probe only calls
+  String.equals when the hashes already match;
+- deleted slots become tombstones until the next resize.
+
+Not thread-safe itself. The natives lock the map for each operation, so
+tasks can share maps; see LoxTask.
+*/
+class LoxMap {
+  private static final int MIN_CAPACITY = 8;
+
+  // Slot kinds.
+  private static final byte EMPTY = 0, DELETED = 1, NUMBER = 2, STRING = 3, OTHER = 4;
+
+  LoxMap() {
+    allocate(MIN_CAPACITY);
+  }
+
+  private byte[] kinds;
+  private int[] hashes;
+  private long[] numberKeys; // Double.doubleToLongBits of NUMBER keys.
+  private Object[] objectKeys; // STRING and OTHER keys.
+  private Object[] values;
+  private int size = 0;
+  private int used = 0; // Live slots plus tombstones.
+  private int modifications = 0;
+
+  int size() {
+    return size;
+  }
+
+  // Changes whenever a key is added or removed, so iteration can detect it.
+  int modifications() {
+    return modifications;
+  }
+
+  boolean has(Object key) {
+    return find(key) >= 0;
+  }
+
+  Object get(Object key) {
+    int slot = find(key);
+    return slot >= 0 ? values[slot] : null;
+  }
+
+  void set(Object key, Object value) {
+    int slot = find(key);
+    if (slot >= 0) {
+      values[slot] = value;
+      return;
+    }
+
+    if (used + 1 > kinds.length * 3 / 4) resize();
+    int hash = hash(key);
+    slot = hash & (kinds.length - 1);
+    while (kinds[slot] > DELETED) {
+      slot = (slot + 1) & (kinds.length - 1);
+    }
+    if (kinds[slot] == EMPTY) used++;
+    store(slot, key, hash, value);
+    size++;
+    modifications++;
+  }
+
+  boolean delete(Object key) {
+    int slot = find(key);
+    if (slot < 0) return false;
+
+    kinds[slot] = DELETED;
+    objectKeys[slot] = null;
+    values[slot] = null;
+    size--;
+    modifications++;
+    return true;
+  }
+
+  // The first live slot at or after `slot`, or -1. Walks the table in place,
+  // so iterating doesn't copy anything.
+  int nextSlot(int slot) {
+    for (; slot < kinds.length; slot++) {
+      if (kinds[slot] > DELETED) return slot;
+    }
+    return -1;
+  }
+
+  Object keyAt(int slot) {
+    return kinds[slot] == NUMBER ? (Object) Double.longBitsToDouble(numberKeys[slot]) : objectKeys[slot];
+  }
+
+  Object valueAt(int slot) {
+    return values[slot];
+  }
+
+  private int find(Object key) {
+    int hash = hash(key);
+    int mask = kinds.length - 1;
+    if (key instanceof Double) {
+      long bits = Double.doubleToLongBits((Double) key);
+      for (int slot = hash & mask; kinds[slot] != EMPTY; slot = (slot + 1) & mask) {
+        if (kinds[slot] == NUMBER && numberKeys[slot] == bits) return slot;
+      }
+    } else if (key instanceof String) {
+      for (int slot = hash & mask; kinds[slot] != EMPTY; slot = (slot + 1) & mask) {
+        if (kinds[slot] == STRING && hashes[slot] == hash && key.equals(objectKeys[slot])) return slot;
+      }
+    } else {
+      for (int slot = hash & mask; kinds[slot] != EMPTY; slot = (slot + 1) & mask) {
+        if (kinds[slot] == OTHER && hashes[slot] == hash && sameKey(key, objectKeys[slot])) return slot;
+      }
+    }
+    return -1;
+  }
+
+  private void store(int slot, Object key, int hash, Object value) {
+    hashes[slot] = hash;
+    values[slot] = value;
+    if (key instanceof Double) {
+      kinds[slot] = NUMBER;
+      numberKeys[slot] = Double.doubleToLongBits((Double) key);
+    } else {
+      kinds[slot] = key instanceof String ? STRING : OTHER;
+      objectKeys[slot] = key;
+    }
+  }
+
+  private static boolean sameKey(Object a, Object b) {
+    return a instanceof Boolean ? a.equals(b) : a == b;
+  }
+
+  private static int hash(Object key) {
+    int h;
+    if (key instanceof Double) {
+      long bits = Double.doubleToLongBits((Double) key);
+      h = (int) (bits ^ (bits >>> 32));
+    } else if (key instanceof String || key instanceof Boolean) {
+      h = key.hashCode();
+    } else {
+      h = System.identityHashCode(key);
+    }
+    // Spread the bits, since the table is indexed by the low ones.
+    h *= 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private void allocate(int capacity) {
+    kinds = new byte[capacity];
+    hashes = new int[capacity];
+    numberKeys = new long[capacity];
+    objectKeys = new Object[capacity];
+    values = new Object[capacity];
+  }
+
+  // Rehashes into a table sized for the live keys, dropping tombstones.
+  private void resize() {
+    byte[] oldKinds = kinds;
+    int[] oldHashes = hashes;
+    long[] oldNumberKeys = numberKeys;
+    Object[] oldObjectKeys = objectKeys;
+    Object[] oldValues = values;
+
+    int capacity = MIN_CAPACITY;
+    while ((size + 1) * 2 > capacity) capacity *= 2;
+    allocate(capacity);
+
+    int mask = capacity - 1;
+    for (int i = 0; i < oldKinds.length; i++) {
+      if (oldKinds[i] <= DELETED) continue;
+      int slot = oldHashes[i] & mask;
+      while (kinds[slot] != EMPTY) {
+        slot = (slot + 1) & mask;
+      }
+      kinds[slot] = oldKinds[i];
+      hashes[slot] = oldHashes[i];
+      numberKeys[slot] = oldNumberKeys[i];
+      objectKeys[slot] = oldObjectKeys[i];
+      values[slot] = oldValues[i];
+    }
+    used = size;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("{");
+    for (int slot = nextSlot(0); slot >= 0; slot = nextSlot(slot + 1)) {
+      if (builder.length() > 1) builder.append(", ");
+      Object value = values[slot];
+      builder.append(keyAt(slot)).append(": ").append(value == this ? "{...}" : value);
+    }
+    return builder.append("}").toString();
+  }
+}
@@ -0,0 +1,21 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// Marks a Java method as callable from Lox. Static methods become global
+// functions, instance methods become methods of a host object; see
+// NativeBinding and LoxScriptEngine.defineNatives.
+//
+// Parameters may be numbers, booleans, Strings, Object, or any class the Lox
+// values passed must be instances of (e.g. a host class). A first parameter
+// of type Interpreter is passed the calling interpreter and is not part of
+// the Lox arity.
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface LoxNative {
+  // The Lox name. Defaults to the method's name.
+  String value() default "";
+}
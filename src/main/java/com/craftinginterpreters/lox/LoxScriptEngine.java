@@ -0,0 +1,467 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.Invocable;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+
+// JSR-223 engine. The ENGINE_SCOPE bindings are a live view of the global
+// Scope (see ScopeBindings), so state persists across evals without copying.
+public class LoxScriptEngine extends AbstractScriptEngine implements Compilable, Invocable {
+  private static final int COMPILE_CACHE_SIZE = 64;
+
+  private final LoxScriptEngineFactory factory;
+  // Modules imported by scripts run on this engine, each executed once.
+  private final ModuleCache modules = new ModuleCache(ForkJoinPool.commonPool(), false);
+
+  // Parsed scripts passed to eval(String), most recently used last.
+  private final Map<String, LoxCompiledScript> compileCache =
+    new LinkedHashMap<String, LoxCompiledScript>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, LoxCompiledScript> eldest) {
+        return size() > COMPILE_CACHE_SIZE;
+      }
+    };
+
+  LoxScriptEngine(LoxScriptEngineFactory factory) {
+    super(new ScopeBindings(Interpreter.newGlobalScope()));
+    this.factory = factory;
+  }
+
+  @Override
+  public Object eval(String script, ScriptContext context) throws ScriptException {
+    LoxCompiledScript compiled;
+    synchronized (compileCache) {
+      compiled = compileCache.get(script);
+    }
+    if (compiled == null) {
+      compiled = compile(script);
+      synchronized (compileCache) {
+        compileCache.put(script, compiled);
+      }
+    }
+    return compiled.eval(context);
+  }
+
+  @Override
+  public Object eval(Reader reader, ScriptContext context) throws ScriptException {
+    return eval(readAll(reader), context);
+  }
+
+  @Override
+  public Bindings createBindings() {
+    return new ScopeBindings(Interpreter.newGlobalScope());
+  }
+
+  @Override
+  public ScriptEngineFactory getFactory() {
+    return factory;
+  }
+
+  /*
+   o------------o
+   | COMPILABLE |
+   o------------o
+  */
+
+  @Override
+  public LoxCompiledScript compile(String script) throws ScriptException {
+    LoxEngine.CompiledProgram program = LoxEngine.compile(script);
+    if (program.hasErrors()) {
+      throw toScriptException(program.errors().get(0));
+    }
+    return new LoxCompiledScript(this, program.statements());
+  }
+
+  @Override
+  public LoxCompiledScript compile(Reader script) throws ScriptException {
+    return compile(readAll(script));
+  }
+
+  // Runs already-parsed statements. The Scanner and Parser are not involved.
+  Object execute(List<Statement> statements, ScriptContext context) throws ScriptException {
+    Bindings bindings = context.getBindings(ScriptContext.ENGINE_SCOPE);
+    Scope globals = globalsFor(bindings);
+
+    LoxEngine.CollectingReporter reporter = new LoxEngine.CollectingReporter();
+    Interpreter interpreter = new Interpreter(reporter, globals);
+    interpreter.out = outputFor(context);
+    interpreter.modules = modules;
+    try {
+      for (Statement stmt : statements) {
+        interpreter.interpret(stmt);
+        if (reporter.hadRuntimeError) {
+          throw toScriptException(reporter.diagnostics().get(0));
+        }
+      }
+    } finally {
+      interpreter.out.flush();
+      if (!(bindings instanceof ScopeBindings)) {
+        copyBack(globals, bindings);
+      }
+    }
+    return null;
+  }
+
+  // Declares every @LoxNative static method of `natives` as a global function.
+  public void defineNatives(Class<?> natives) {
+    for (LoxCallable callable : NativeBinding.natives(natives)) {
+      put(((NativeFunction) callable).name, callable);
+    }
+  }
+
+  // Declares a global `name` for `host`, whose @LoxNative instance methods
+  // can then be called from Lox as `name.method(...)`.
+  public void defineHostObject(String name, Object host) {
+    put(name, NativeBinding.host(host));
+  }
+
+  /*
+   o-----------o
+   | INVOCABLE |
+   o-----------o
+  */
+
+  @Override
+  public Object invokeFunction(String name, Object... args)
+      throws ScriptException, NoSuchMethodException {
+    Bindings bindings = getBindings(ScriptContext.ENGINE_SCOPE);
+    Scope globals = globalsFor(bindings);
+    Object function;
+    try {
+      function = globals._get(name);
+    } catch (EnvironmentException e) {
+      throw new NoSuchMethodException(String.format("Function '%s' not defined.", name));
+    }
+
+    try {
+      return invoke(context, globals, function, name, args);
+    } finally {
+      if (!(bindings instanceof ScopeBindings)) {
+        copyBack(globals, bindings);
+      }
+    }
+  }
+
+  @Override
+  public Object invokeMethod(Object thiz, String name, Object... args)
+      throws ScriptException, NoSuchMethodException {
+    if (!(thiz instanceof Fieldable)) {
+      throw new IllegalArgumentException(String.format("Cannot call method '%s' of non-class %s.", name, thiz));
+    }
+    Object method;
+    try {
+      method = ((Fieldable) thiz).fields._get(name);
+    } catch (EnvironmentException e) {
+      throw new NoSuchMethodException(String.format("Attribute '%s' not found.", name));
+    }
+    return invoke(context, globalsFor(getBindings(ScriptContext.ENGINE_SCOPE)), method, name, args);
+  }
+
+  @Override
+  public <T> T getInterface(Class<T> clasz) {
+    Scope globals = globalsFor(getBindings(ScriptContext.ENGINE_SCOPE));
+    for (Method method : clasz.getMethods()) {
+      try {
+        if (!(globals._get(method.getName()) instanceof LoxCallable)) return null;
+      } catch (EnvironmentException e) {
+        return null;
+      }
+    }
+    return proxy(clasz, (name, args) -> invokeFunction(name, args));
+  }
+
+  @Override
+  public <T> T getInterface(Object thiz, Class<T> clasz) {
+    if (!(thiz instanceof Fieldable)) {
+      throw new IllegalArgumentException("Not a Lox object: " + thiz);
+    }
+    Scope fields = ((Fieldable) thiz).fields;
+    for (Method method : clasz.getMethods()) {
+      try {
+        if (!(fields._get(method.getName()) instanceof LoxCallable)) return null;
+      } catch (EnvironmentException e) {
+        return null;
+      }
+    }
+    return proxy(clasz, (name, args) -> invokeMethod(thiz, name, args));
+  }
+
+  private Object invoke(ScriptContext context, Scope globals, Object value, String name, Object[] javaArgs)
+      throws ScriptException, NoSuchMethodException {
+    if (!(value instanceof LoxCallable)) {
+      throw new NoSuchMethodException(String.format("'%s' is not callable.", name));
+    }
+    LoxCallable callable = (LoxCallable) value;
+
+    List<Object> args = new ArrayList<>();
+    if (javaArgs != null) {
+      for (Object arg : javaArgs) {
+        args.add(toLox(arg));
+      }
+    }
+    if (!callable.isValidArity(args.size())) {
+      throw new ScriptException(String.format(
+        "Expected %s arguments, but got %s.", callable.arityString(), args.size()));
+    }
+
+    Interpreter interpreter = new Interpreter(new LoxEngine.CollectingReporter(), globals);
+    interpreter.out = outputFor(context);
+    interpreter.modules = modules;
+    try {
+      return fromLox(interpreter.callFunction(callable, args));
+    } catch (RuntimeError e) {
+      throw new ScriptException(e.getMessage(), null, e.token.line);
+    } catch (LoxException e) {
+      throw new ScriptException(e.getMessage());
+    } catch (RuntimeException e) {
+      throw new ScriptException(e);
+    } finally {
+      interpreter.out.flush();
+    }
+  }
+
+  // Where `print` writes while running in `context`: its writer, buffered
+  // until the run ends. The writer is never closed; it belongs to the host.
+  private static OutputSink outputFor(ScriptContext context) {
+    if (context.getWriter() == null) return OutputSink.SYSTEM_OUT;
+    return new OutputSink(context.getWriter(), OutputSink.Flush.SIZE, OutputSink.DEFAULT_BUFFER_SIZE);
+  }
+
+  private interface _Invoker {
+    Object invoke(String name, Object[] args) throws ScriptException, NoSuchMethodException;
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> T proxy(Class<T> clasz, _Invoker invoker) {
+    return (T) Proxy.newProxyInstance(
+      clasz.getClassLoader(),
+      new Class<?>[] { clasz },
+      (proxy, method, args) -> {
+        if (method.getDeclaringClass() == Object.class) {
+          return method.invoke(this, args);
+        }
+        return fromLox(invoker.invoke(method.getName(), args), method.getReturnType());
+      });
+  }
+
+  /*
+   o-----------o
+   | UTILITIES |
+   o-----------o
+  */
+
+  // Bindings that are not backed by a Scope (e.g. SimpleBindings) are copied
+  // into a fresh global Scope, and copied back once execution finishes.
+  private static Scope globalsFor(Bindings bindings) {
+    if (bindings instanceof ScopeBindings) {
+      return ((ScopeBindings) bindings).scope;
+    }
+    Scope globals = Interpreter.newGlobalScope();
+    for (Map.Entry<String, Object> entry : bindings.entrySet()) {
+      globals._declare(entry.getKey(), toLox(entry.getValue()));
+    }
+    return globals;
+  }
+
+  // Builtins aren't copied back unless the caller bound that name themselves.
+  private static void copyBack(Scope globals, Bindings bindings) {
+    for (Map.Entry<Symbol, Variable> entry : globals.locals.entrySet()) {
+      String name = entry.getKey().name;
+      if (ModuleCache.BUILTINS.contains(entry.getKey()) && !bindings.containsKey(name)) continue;
+      bindings.put(name, fromLox(entry.getValue().value));
+    }
+  }
+
+  // Lox only has one number type.
+  static Object toLox(Object value) {
+    if (value instanceof Number) return ((Number) value).doubleValue();
+    if (value instanceof Character) return value.toString();
+    return value;
+  }
+
+  // Strings built by `+` become Strings.
+  static Object fromLox(Object value) {
+    return ConcatString.flatten(value);
+  }
+
+  static Object fromLox(Object value, Class<?> type) {
+    if (type == void.class) return null;
+    value = fromLox(value);
+    if (value instanceof Double) {
+      Double number = (Double) value;
+      if (type == int.class || type == Integer.class) return number.intValue();
+      if (type == long.class || type == Long.class) return number.longValue();
+      if (type == float.class || type == Float.class) return number.floatValue();
+      if (type == short.class || type == Short.class) return number.shortValue();
+      if (type == byte.class || type == Byte.class) return number.byteValue();
+    }
+    return value;
+  }
+
+  private static ScriptException toScriptException(LoxEngine.Diagnostic diagnostic) {
+    return new ScriptException(diagnostic.message, null, diagnostic.line);
+  }
+
+  private static String readAll(Reader reader) throws ScriptException {
+    StringBuilder builder = new StringBuilder();
+    char[] buffer = new char[8192];
+    try {
+      for (int n; (n = reader.read(buffer)) != -1; ) {
+        builder.append(buffer, 0, n);
+      }
+    } catch (IOException e) {
+      throw new ScriptException(e);
+    }
+    return builder.toString();
+  }
+}
+
+class LoxCompiledScript extends CompiledScript {
+  LoxCompiledScript(LoxScriptEngine engine, List<Statement> statements) {
+    this.engine = engine;
+    this.statements = statements;
+  }
+
+  private final LoxScriptEngine engine;
+  private final List<Statement> statements;
+
+  @Override
+  public Object eval(ScriptContext context) throws ScriptException {
+    return engine.execute(statements, context);
+  }
+
+  @Override
+  public ScriptEngine getEngine() {
+    return engine;
+  }
+}
+
+// A live view of a global Scope. Reads and writes go straight to the Scope's
+// Variables, so a Lox closure and a Java caller always see the same value.
+class ScopeBindings extends AbstractMap<String, Object> implements Bindings {
+  ScopeBindings(Scope scope) {
+    this.scope = scope;
+  }
+
+  final Scope scope;
+
+  @Override
+  public Object put(String name, Object value) {
+    checkKey(name);
+    Variable variable = scope._local(name);
+    if (variable == null) {
+      scope._declare(name, LoxScriptEngine.toLox(value));
+      return null;
+    }
+    Object previous = variable.value;
+    variable.set(LoxScriptEngine.toLox(value));
+    return LoxScriptEngine.fromLox(previous);
+  }
+
+  @Override
+  public Object get(Object name) {
+    checkKey(name);
+    Variable variable = scope._local((String) name);
+    return variable == null ? null : LoxScriptEngine.fromLox(variable.value);
+  }
+
+  @Override
+  public boolean containsKey(Object name) {
+    checkKey(name);
+    return scope._local((String) name) != null;
+  }
+
+  @Override
+  public Object remove(Object name) {
+    checkKey(name);
+    Symbol symbol = Symbol.find((String) name);
+    Variable variable = symbol == null ? null : scope.locals.remove(symbol);
+    return variable == null ? null : LoxScriptEngine.fromLox(variable.value);
+  }
+
+  @Override
+  public int size() {
+    return scope.locals.size();
+  }
+
+  @Override
+  public Set<Map.Entry<String, Object>> entrySet() {
+    return new AbstractSet<Map.Entry<String, Object>>() {
+      @Override
+      public int size() {
+        return scope.locals.size();
+      }
+
+      @Override
+      public Iterator<Map.Entry<String, Object>> iterator() {
+        Iterator<Map.Entry<Symbol, Variable>> locals = scope.locals.entrySet().iterator();
+        return new Iterator<Map.Entry<String, Object>>() {
+          @Override
+          public boolean hasNext() {
+            return locals.hasNext();
+          }
+
+          @Override
+          public Map.Entry<String, Object> next() {
+            Map.Entry<Symbol, Variable> entry = locals.next();
+            return new VariableEntry(entry.getKey().name, entry.getValue());
+          }
+
+          @Override
+          public void remove() {
+            locals.remove();
+          }
+        };
+      }
+    };
+  }
+
+  private static void checkKey(Object name) {
+    if (name == null) throw new NullPointerException("Binding name cannot be null.");
+    if (!(name instanceof String)) throw new ClassCastException("Binding name must be a String.");
+    if (((String) name).isEmpty()) throw new IllegalArgumentException("Binding name cannot be empty.");
+  }
+
+  private static class VariableEntry implements Map.Entry<String, Object> {
+    VariableEntry(String name, Variable variable) {
+      this.name = name;
+      this.variable = variable;
+    }
+
+    private final String name;
+    private final Variable variable;
+
+    @Override
+    public String getKey() { return name; }
+
+    @Override
+    public Object getValue() { return LoxScriptEngine.fromLox(variable.value); }
+
+    @Override
+    public Object setValue(Object value) {
+      Object previous = variable.value;
+      variable.set(LoxScriptEngine.toLox(value));
+      return LoxScriptEngine.fromLox(previous);
+    }
+  }
+}
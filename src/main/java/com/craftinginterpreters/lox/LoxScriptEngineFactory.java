@@ -0,0 +1,74 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+
+// Registered in META-INF/services so `new ScriptEngineManager().getEngineByName("lox")`
+// finds it.
+public class LoxScriptEngineFactory implements ScriptEngineFactory {
+  private static final List<String> NAMES = Arrays.asList("lox", "Lox", "jlox");
+  private static final List<String> EXTENSIONS = Arrays.asList("lox");
+  private static final List<String> MIME_TYPES = Arrays.asList("application/x-lox", "text/x-lox");
+
+  @Override
+  public String getEngineName() { return "jlox"; }
+
+  @Override
+  public String getEngineVersion() { return "1.0"; }
+
+  @Override
+  public List<String> getExtensions() { return EXTENSIONS; }
+
+  @Override
+  public List<String> getMimeTypes() { return MIME_TYPES; }
+
+  @Override
+  public List<String> getNames() { return NAMES; }
+
+  @Override
+  public String getLanguageName() { return "Lox"; }
+
+  @Override
+  public String getLanguageVersion() { return "1.0"; }
+
+  @Override
+  public Object getParameter(String key) {
+    switch (key) {
+      case ScriptEngine.ENGINE: return getEngineName();
+      case ScriptEngine.ENGINE_VERSION: return getEngineVersion();
+      case ScriptEngine.NAME: return NAMES.get(0);
+      case ScriptEngine.LANGUAGE: return getLanguageName();
+      case ScriptEngine.LANGUAGE_VERSION: return getLanguageVersion();
+      // An engine owns one global Scope, which is not safe to mutate from
+      // several threads at once. Use LoxEngine for concurrent execution.
+      case "THREADING": return null;
+      default: return null;
+    }
+  }
+
+  @Override
+  public String getMethodCallSyntax(String obj, String m, String... args) {
+    return obj + "." + m + "(" + String.join(", ", args) + ")";
+  }
+
+  @Override
+  public String getOutputStatement(String toDisplay) {
+    return "print \"" + toDisplay + "\";";
+  }
+
+  @Override
+  public String getProgram(String... statements) {
+    return Arrays.stream(statements)
+      .map(stmt -> stmt.endsWith(";") ? stmt : stmt + ";")
+      .collect(Collectors.joining("\n"));
+  }
+
+  @Override
+  public ScriptEngine getScriptEngine() {
+    return new LoxScriptEngine(this);
+  }
+}
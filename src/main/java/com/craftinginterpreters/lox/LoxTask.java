@@ -0,0 +1,73 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/*
+A call running concurrently with the script, started by spawn() and
+finished by await():
+
+  fun fetch(url) { ... }
+  var a = spawn(fetch, "a");
+  var b = spawn(fetch, "b");
+  print await(a) + await(b);
+
+Each task runs on a thread of its own (see Threads), in a fork of the
+interpreter that spawned it: it has its own scope, call stack and execution
+stack, and shares everything else, starting with the globals.
+
+What tasks sharing variables and objects can rely on:
+- Reading or assigning a variable, or an instance field, is atomic. An
+  assignment on one thread is only sure to be seen by another once they
+  synchronize: through spawn(), await(), or the natives of an array or map
+  both use. Variables aren't volatile, so code that never shares one doesn't
+  pay for it.
+- Declaring a variable is safe even while other threads look names up in
+  the same scope. The globals, and the scopes around every closure, are
+  concurrent maps; every other scope only ever belongs to one thread.
+- Each task draws random() numbers from its own generator, seeded from its
+  spawner's, so random_seed() makes a script repeatable.
+- Each array or map native is atomic; see LoxArray and LoxMap.
+- Nothing bigger is atomic. `count = count + 1` can lose updates when two
+  tasks run it at once.
+- Everything a task did happens before await() returns its result.
+
+An error in a task is thrown by await(), as often as it is awaited. A
+script doesn't wait for tasks it never awaits: when it ends, they stop.
+*/
+class LoxTask {
+  static LoxTask spawn(Interpreter caller, LoxCallable callable, List<Object> arguments) {
+    Interpreter interpreter = caller.fork();
+    LoxTask task = new LoxTask(callable, new FutureTask<>(() -> interpreter.callFunction(callable, arguments)));
+    Threads.start("task " + callable, task.future);
+    return task;
+  }
+
+  private LoxTask(LoxCallable callable, FutureTask<Object> future) {
+    this.callable = callable;
+    this.future = future;
+  }
+
+  private final LoxCallable callable;
+  private final FutureTask<Object> future;
+
+  // The task's result, once it has finished.
+  Object await(Interpreter interpreter) {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      Throwable failure = e.getCause();
+      if (failure instanceof Error) throw (Error) failure;
+      throw (RuntimeException) failure;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw NativeFunctions.error(interpreter, "Interrupted while awaiting " + this + ".");
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "<task " + callable + ">";
+  }
+}
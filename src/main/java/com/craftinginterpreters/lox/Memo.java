@@ -0,0 +1,104 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+The results of a pure LoxFunction, by the values of its arguments. Used by
+interpreters run with --memoize; see LoxFunction.memo and Purity.
+
+Only calls whose arguments are all numbers, strings, booleans or nil are
+cached; with anything else (an array, say) the function is just called. The
+cache holds at most `capacity` results and evicts the least recently used.
+
+A Memo is only good while the function's dependencies hold the values they
+had when it was analyzed. LoxFunction checks isCurrent() before every use.
+*/
+class Memo {
+  static final int DEFAULT_CAPACITY = 10_000;
+
+  // Stands for a cached nil, so a null lookup means a miss.
+  private static final Object NIL = new Object();
+
+  Memo(List<Variable> dependencies, int capacity) {
+    this.dependencies = dependencies.toArray(new Variable[0]);
+    this.values = new Object[this.dependencies.length];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = this.dependencies[i].value;
+    }
+    this.capacity = capacity;
+    this.results = new LinkedHashMap<List<Object>, Object>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<List<Object>, Object> eldest) {
+        if (size() <= Memo.this.capacity) return false;
+        evictions++;
+        return true;
+      }
+    };
+  }
+
+  private final Variable[] dependencies;
+  private final Object[] values;
+  final int capacity;
+
+  // All guarded by `this`. Functions can be shared between interpreters.
+  private final LinkedHashMap<List<Object>, Object> results;
+  private long hits = 0;
+  private long misses = 0;
+  private long evictions = 0;
+
+  boolean isCurrent() {
+    for (int i = 0; i < dependencies.length; i++) {
+      if (dependencies[i].value != values[i]) return false;
+    }
+    return true;
+  }
+
+  Object call(Interpreter interpreter, LoxFunction function, List<Object> arguments) {
+    List<Object> key = key(arguments);
+    if (key == null) return function.invoke(interpreter, arguments);
+
+    synchronized (this) {
+      Object result = results.get(key);
+      if (result != null) {
+        hits++;
+        return result == NIL ? null : result;
+      }
+      misses++;
+    }
+    // Not holding the lock: the call may take a while, and may call this
+    // function again.
+    Object result = ConcatString.flatten(function.invoke(interpreter, arguments));
+    synchronized (this) {
+      results.put(key, result == null ? NIL : result);
+    }
+    return result;
+  }
+
+  // The arguments as a cache key, or null if they can't be one.
+  private static List<Object> key(List<Object> arguments) {
+    List<Object> key = new ArrayList<>(arguments.size());
+    for (Object argument : arguments) {
+      argument = ConcatString.flatten(argument);
+      if (argument != null && !(argument instanceof Double || argument instanceof String
+          || argument instanceof Boolean)) {
+        return null;
+      }
+      key.add(argument);
+    }
+    return key;
+  }
+
+  // For memo_stats().
+  synchronized LoxMap stats() {
+    LoxMap stats = new LoxMap();
+    stats.set("memoized", true);
+    stats.set("hits", (double) hits);
+    stats.set("misses", (double) misses);
+    stats.set("evictions", (double) evictions);
+    stats.set("size", (double) results.size());
+    return stats;
+  }
+}
@@ -0,0 +1,221 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+/*
+Modules loaded by `import "path";`. Each file is parsed once and executed
+once per cache; every importer binds the same Variables for its globals, so
+an assignment through one import is seen by all of them.
+
+Parsing runs ahead on a ForkJoinPool: once a file is parsed, every module it
+imports at top level starts parsing too. A program's independent imports are
+therefore parsed in parallel, while execution stays sequential, in import
+order, on the importing thread.
+
+Importing a module that is still executing further up the same chain of
+imports is a runtime error. So is a cycle across threads: each module is
+executed by one thread while importers on others wait for it, and a thread
+that would end up waiting, through them, for a module it is executing
+itself reports the cycle instead of deadlocking.
+*/
+class ModuleCache {
+  // Globals every Interpreter starts with. These are never exported.
+  static final Set<Symbol> BUILTINS = Interpreter.newGlobalScope().locals.keySet();
+
+  ModuleCache(ForkJoinPool pool, boolean lazyBodies) {
+    this.pool = pool;
+    this.lazyBodies = lazyBodies;
+  }
+
+  private final ForkJoinPool pool;
+  private final boolean lazyBodies;
+  private final Map<Path, Module> modules = new ConcurrentHashMap<>();
+  // The module each thread is waiting for another thread to execute.
+  private final Map<Thread, Module> waiting = new HashMap<>(); // Guarded by `this`.
+
+  static class Module {
+    Module(Path path) {
+      this.path = path;
+    }
+
+    final Path path;
+    // Fails with a LoxException if the file can't be read or parsed.
+    final CompletableFuture<List<Statement>> statements = new CompletableFuture<>();
+    // Completes with the module's globals once executed, or with null if
+    // executing it failed, and is then cleared for the next importer to try
+    // again. Null until somebody starts executing it. Guarded by the cache.
+    private CompletableFuture<Scope> execution = null;
+    // The thread executing it, while it does. Guarded by the cache.
+    private Thread executor = null;
+  }
+
+  // Starts parsing `path` in the background unless it already has been.
+  Module load(Path path) {
+    Path key = path.toAbsolutePath().normalize();
+    Module module = modules.get(key);
+    if (module != null) return module;
+
+    Module created = new Module(key);
+    module = modules.putIfAbsent(key, created);
+    if (module != null) return module;
+
+    pool.execute(() -> parse(created));
+    return created;
+  }
+
+  // Starts parsing the top-level imports among `statements`, which were
+  // parsed from a file in `directory`.
+  void prefetch(List<Statement> statements, Path directory) {
+    for (Statement stmt : statements) {
+      if (stmt instanceof ImportStmt) {
+        load(resolve(directory, (ImportStmt) stmt));
+      }
+    }
+  }
+
+  static Path resolve(Path directory, ImportStmt stmt) {
+    return directory.resolve((String) stmt.path.literal);
+  }
+
+  private void parse(Module module) {
+    try {
+      byte[] bytes = Files.readAllBytes(module.path);
+      ErrorReporter.Buffered reporter = new ErrorReporter.Buffered();
+      List<Statement> statements = Lox.parse(new String(bytes, Charset.defaultCharset()), reporter, lazyBodies);
+      if (reporter.hadError) {
+        ErrorReporter.Report first = reporter.reports.get(0);
+        throw new LoxException(String.format("Syntax error in module '%s': [line %d] Error%s: %s",
+          module.path, first.line, first.where, first.message));
+      }
+      prefetch(statements, module.path.getParent());
+      module.statements.complete(statements);
+    } catch (IOException e) {
+      module.statements.completeExceptionally(
+        new LoxException(String.format("Cannot read module '%s'.", module.path)));
+    } catch (RuntimeException e) {
+      module.statements.completeExceptionally(e);
+    }
+  }
+
+  // Binds the module's exported globals into `scope`, executing the module
+  // first if nobody has yet.
+  void importInto(Scope scope, Module module, Interpreter importer, Token importToken) {
+    if (importer.importChain.contains(module.path)) {
+      StringBuilder cycle = new StringBuilder();
+      for (Path path : importer.importChain.subList(importer.importChain.indexOf(module.path), importer.importChain.size())) {
+        cycle.append(path.getFileName()).append(" -> ");
+      }
+      cycle.append(module.path.getFileName());
+      throw new RuntimeError(importToken, "Import cycle: " + cycle + ".").withInterpreterState(importer);
+    }
+
+    Scope globals = globalsOf(module, importer, importToken);
+    for (Map.Entry<Symbol, Variable> entry : globals.locals.entrySet()) {
+      if (!BUILTINS.contains(entry.getKey())) {
+        scope._bind(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  // The module's globals. Executes it on this thread unless another thread
+  // already is, in which case waits for that one to finish.
+  private Scope globalsOf(Module module, Interpreter importer, Token importToken) {
+    Thread current = Thread.currentThread();
+    CompletableFuture<Scope> execution;
+    boolean executes = false;
+    synchronized (this) {
+      execution = module.execution;
+      if (execution == null) {
+        execution = module.execution = new CompletableFuture<>();
+        module.executor = current;
+        executes = true;
+      } else if (!execution.isDone()) {
+        checkCycle(module, importer, importToken);
+        waiting.put(current, module);
+      }
+    }
+
+    if (executes) {
+      Scope globals = null;
+      try {
+        globals = execute(module, importer, importToken);
+        return globals;
+      } finally {
+        synchronized (this) {
+          module.executor = null;
+          if (globals == null) module.execution = null;
+        }
+        execution.complete(globals);
+      }
+    }
+
+    Scope globals;
+    try {
+      globals = execution.join();
+    } finally {
+      synchronized (this) {
+        waiting.remove(current);
+      }
+    }
+    // Executing it failed on another thread. Try again here, so the error is
+    // reported against this import.
+    return globals != null ? globals : globalsOf(module, importer, importToken);
+  }
+
+  // Throws if waiting for `module` means waiting for a module this thread is
+  // executing: its executor waits for a module whose executor waits for ...
+  // a module executing on this thread. Must hold `this`.
+  private void checkCycle(Module module, Interpreter importer, Token importToken) {
+    List<Path> waits = new ArrayList<>();
+    for (Module next = module; next != null && next.executor != null; next = waiting.get(next.executor)) {
+      waits.add(next.path);
+      if (next.executor != Thread.currentThread()) continue;
+
+      // `next` is further up this thread's chain of imports.
+      List<Path> chain = importer.importChain;
+      int start = chain.indexOf(next.path);
+      List<Path> cycle = new ArrayList<>(start < 0 ? List.of() : chain.subList(start, chain.size()));
+      cycle.addAll(waits);
+      StringBuilder message = new StringBuilder();
+      for (Path path : cycle) {
+        if (message.length() > 0) message.append(" -> ");
+        message.append(path.getFileName());
+      }
+      throw new RuntimeError(importToken, "Import cycle across threads: " + message + ".")
+        .withInterpreterState(importer);
+    }
+  }
+
+  private Scope execute(Module module, Interpreter importer, Token importToken) {
+    List<Statement> statements;
+    try {
+      statements = module.statements.join();
+    } catch (CompletionException e) {
+      String message = e.getCause() instanceof LoxException
+        ? e.getCause().getMessage()
+        : String.format("Cannot load module '%s': %s", module.path, e.getCause());
+      throw new RuntimeError(importToken, message).withInterpreterState(importer);
+    }
+
+    Interpreter interpreter = new Interpreter(importer.reporter);
+    interpreter.out = importer.out;
+    interpreter.memoCapacity = importer.memoCapacity;
+    interpreter.modules = this;
+    interpreter.importChain = new ArrayList<>(importer.importChain);
+    interpreter.importChain.add(module.path);
+    Lox.execute(statements, interpreter);
+    return interpreter.currentScope.getGlobal();
+  }
+}
@@ -0,0 +1,308 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+Turns @LoxNative Java methods into LoxCallables.
+
+Each method gets a MethodHandle that converts the Lox arguments to its
+parameter types and its result back to a Lox value. The conversion is built
+from MethodHandle combinators, once per method type, and cached; binding
+another method of the same type reuses it. A call is then one invokeExact,
+with no reflection and no per-call lookup of how to convert anything.
+*/
+class NativeBinding {
+  private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+  // Natives taking at most this many arguments are called without spreading
+  // them into an array.
+  static final int MAX_SPREAD_ARITY = 4;
+
+  // (MethodHandle target, Interpreter, Object...)Object, by the target's
+  // type. Past MAX_SPREAD_ARITY the arguments come in an Object[].
+  private static final Map<MethodType, MethodHandle> adapters = new ConcurrentHashMap<>();
+
+  // The natives declared by each class's static methods. They are shared,
+  // like every other native; see NativeFunctions.
+  private static final ClassValue<List<LoxCallable>> staticNatives = new ClassValue<List<LoxCallable>>() {
+    @Override
+    protected List<LoxCallable> computeValue(Class<?> type) {
+      List<LoxCallable> natives = new ArrayList<>();
+      for (Method method : annotatedMethods(type)) {
+        if (Modifier.isStatic(method.getModifiers())) {
+          natives.add(bind(nativeName(method), unreflect(method)));
+        }
+      }
+      return Collections.unmodifiableList(natives);
+    }
+  };
+
+  // The @LoxNative instance methods of each class, by native name, unbound.
+  // Reflecting over a class once is enough however many objects it hosts.
+  private static final ClassValue<Map<String, MethodHandle>> instanceMethods =
+    new ClassValue<Map<String, MethodHandle>>() {
+      @Override
+      protected Map<String, MethodHandle> computeValue(Class<?> type) {
+        Map<String, MethodHandle> methods = new LinkedHashMap<>();
+        for (Method method : annotatedMethods(type)) {
+          if (!Modifier.isStatic(method.getModifiers())) {
+            methods.put(nativeName(method), unreflect(method));
+          }
+        }
+        return Collections.unmodifiableMap(methods);
+      }
+    };
+
+  // Declares the @LoxNative static methods of `type` in `scope`.
+  static void define(Scope scope, Class<?> type) {
+    for (LoxCallable callable : natives(type)) {
+      scope._declare(((NativeFunction) callable).name, callable);
+    }
+  }
+
+  static List<LoxCallable> natives(Class<?> type) {
+    return staticNatives.get(type);
+  }
+
+  // A Lox object whose methods are the @LoxNative instance methods of `host`.
+  static HostObject host(Object host) {
+    HostObject object = new HostObject(host);
+    for (Map.Entry<String, MethodHandle> method : instanceMethods.get(host.getClass()).entrySet()) {
+      object.fields._declare(method.getKey(), bind(method.getKey(), method.getValue().bindTo(host)));
+    }
+    return object;
+  }
+
+  private static List<Method> annotatedMethods(Class<?> type) {
+    List<Method> methods = new ArrayList<>();
+    for (Method method : type.getDeclaredMethods()) {
+      if (method.isAnnotationPresent(LoxNative.class)) methods.add(method);
+    }
+    return methods;
+  }
+
+  private static MethodHandle unreflect(Method method) {
+    try {
+      method.setAccessible(true);
+      return LOOKUP.unreflect(method);
+    } catch (IllegalAccessException | RuntimeException e) {
+      throw new IllegalArgumentException("Cannot bind " + method + ": " + e.getMessage(), e);
+    }
+  }
+
+  private static String nativeName(Method method) {
+    String name = method.getAnnotation(LoxNative.class).value();
+    return name.isEmpty() ? method.getName() : name;
+  }
+
+  // A native calling `target`, with any receiver already bound.
+  private static BoundNative bind(String name, MethodHandle target) {
+    int arity = target.type().parameterCount();
+    if (arity > 0 && target.type().parameterType(0) == Interpreter.class) arity--;
+
+    MethodHandle adapter = adapters.computeIfAbsent(target.type(), NativeBinding::adapter);
+    return new BoundNative(name, arity, adapter.bindTo(target));
+  }
+
+  private static MethodHandle adapter(MethodType type) {
+    // (MethodHandle, P...)R
+    MethodHandle invoker = MethodHandles.exactInvoker(type);
+
+    boolean takesInterpreter = type.parameterCount() > 0 && type.parameterType(0) == Interpreter.class;
+    int first = takesInterpreter ? 1 : 0;
+    MethodHandle[] filters = new MethodHandle[type.parameterCount() - first];
+    for (int i = 0; i < filters.length; i++) {
+      filters[i] = toJava(type.parameterType(first + i));
+    }
+    // (MethodHandle, [Interpreter,] Object...)R
+    invoker = MethodHandles.filterArguments(invoker, 1 + first, filters);
+    // (MethodHandle, [Interpreter,] Object...)Object
+    invoker = fromJava(invoker, type.returnType());
+    if (!takesInterpreter) {
+      invoker = MethodHandles.dropArguments(invoker, 1, Interpreter.class);
+    }
+    // (MethodHandle, Interpreter, Object...)Object
+    if (filters.length > MAX_SPREAD_ARITY) {
+      return invoker.asSpreader(Object[].class, filters.length);
+    }
+    return invoker;
+  }
+
+  // (Object)T
+  private static MethodHandle toJava(Class<?> type) {
+    try {
+      if (type == double.class || type == Double.class) {
+        return LOOKUP.findStatic(NativeBinding.class, "toDouble", MethodType.methodType(double.class, Object.class))
+          .asType(MethodType.methodType(type, Object.class));
+      } else if (type == int.class || type == Integer.class) {
+        return LOOKUP.findStatic(NativeBinding.class, "toInt", MethodType.methodType(int.class, Object.class))
+          .asType(MethodType.methodType(type, Object.class));
+      } else if (type == long.class || type == Long.class) {
+        return LOOKUP.findStatic(NativeBinding.class, "toLong", MethodType.methodType(long.class, Object.class))
+          .asType(MethodType.methodType(type, Object.class));
+      } else if (type == boolean.class || type == Boolean.class) {
+        return LOOKUP.findStatic(Interpreter.class, "toBool", MethodType.methodType(boolean.class, Object.class))
+          .asType(MethodType.methodType(type, Object.class));
+      } else if (type == String.class || type == CharSequence.class) {
+        return LOOKUP.findStatic(NativeBinding.class, "toJavaString", MethodType.methodType(String.class, Object.class))
+          .asType(MethodType.methodType(type, Object.class));
+      } else if (type == Object.class) {
+        return LOOKUP.findStatic(ConcatString.class, "flatten", MethodType.methodType(Object.class, Object.class));
+      } else if (!type.isPrimitive()) {
+        MethodHandle check = LOOKUP.findStatic(NativeBinding.class, "checkInstance",
+          MethodType.methodType(Object.class, Class.class, Object.class));
+        return check.bindTo(type).asType(MethodType.methodType(type, Object.class));
+      }
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    }
+    throw new IllegalArgumentException("Lox values cannot be passed as " + type);
+  }
+
+  // Changes `invoker` to return a Lox value.
+  private static MethodHandle fromJava(MethodHandle invoker, Class<?> type) {
+    if (type == void.class) {
+      return MethodHandles.filterReturnValue(invoker, MethodHandles.constant(Object.class, null));
+    }
+    MethodHandle boxed = invoker.asType(invoker.type().changeReturnType(Object.class));
+    if (type == double.class || type == Double.class || type == boolean.class || type == Boolean.class) {
+      return boxed;
+    }
+    try {
+      return MethodHandles.filterReturnValue(boxed,
+        LOOKUP.findStatic(LoxScriptEngine.class, "toLox", MethodType.methodType(Object.class, Object.class)));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static double toDouble(Object value) {
+    if (value instanceof Double) return (Double) value;
+    throw new InterpreterCastException("double", ConcatString.flatten(value));
+  }
+
+  private static int toInt(Object value) {
+    double number = toDouble(value);
+    if (number != (int) number) throw new InterpreterCastException("int", value);
+    return (int) number;
+  }
+
+  private static long toLong(Object value) {
+    double number = toDouble(value);
+    if (number != (long) number) throw new InterpreterCastException("long", value);
+    return (long) number;
+  }
+
+  private static String toJavaString(Object value) {
+    if (ConcatString.isString(value)) return value.toString();
+    throw new InterpreterCastException("String", value);
+  }
+
+  private static Object checkInstance(Class<?> type, Object value) {
+    if (value == null || type.isInstance(value)) return value;
+    throw new InterpreterCastException(type.getSimpleName(), value);
+  }
+}
+
+class BoundNative extends NativeFunction {
+  BoundNative(String name, int arity, MethodHandle handle) {
+    super(name, arity);
+    this.handle = handle;
+  }
+
+  // (Interpreter, Object...)Object; see NativeBinding.adapter.
+  private final MethodHandle handle;
+
+  @Override
+  public Object call(Interpreter interpreter, List<Object> arguments) {
+    switch (arguments.size()) {
+      case 0: return call0(interpreter);
+      case 1: return call1(interpreter, arguments.get(0));
+      case 2: return call2(interpreter, arguments.get(0), arguments.get(1));
+      case 3: return call3(interpreter, arguments.get(0), arguments.get(1), arguments.get(2));
+    }
+    try {
+      if (arguments.size() == 4) {
+        return (Object) handle.invokeExact(interpreter, arguments.get(0), arguments.get(1), arguments.get(2),
+          arguments.get(3));
+      }
+      return (Object) handle.invokeExact(interpreter, arguments.toArray());
+    } catch (Throwable e) {
+      throw failure(interpreter, e);
+    }
+  }
+
+  @Override
+  public Object call0(Interpreter interpreter) {
+    try {
+      return (Object) handle.invokeExact(interpreter);
+    } catch (Throwable e) {
+      throw failure(interpreter, e);
+    }
+  }
+
+  @Override
+  public Object call1(Interpreter interpreter, Object a) {
+    try {
+      return (Object) handle.invokeExact(interpreter, a);
+    } catch (Throwable e) {
+      throw failure(interpreter, e);
+    }
+  }
+
+  @Override
+  public Object call2(Interpreter interpreter, Object a, Object b) {
+    try {
+      return (Object) handle.invokeExact(interpreter, a, b);
+    } catch (Throwable e) {
+      throw failure(interpreter, e);
+    }
+  }
+
+  @Override
+  public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+    try {
+      return (Object) handle.invokeExact(interpreter, a, b, c);
+    } catch (Throwable e) {
+      throw failure(interpreter, e);
+    }
+  }
+
+  // What to throw for `e`, thrown while calling the Java method.
+  private RuntimeException failure(Interpreter interpreter, Throwable e) {
+    if (e instanceof RuntimeError || e instanceof AssertionError) {
+      return (LoxException) e;
+    } else if (e instanceof LoxException) {
+      // An argument of the wrong type.
+      return NativeFunctions.error(interpreter, String.format("%s: %s", this, e.getMessage()));
+    } else if (e instanceof Error) {
+      throw (Error) e;
+    }
+    return NativeFunctions.error(interpreter, String.format("%s threw %s", this, e));
+  }
+}
+
+// A Java object whose @LoxNative methods are bound as its fields.
+class HostObject extends Fieldable {
+  HostObject(Object host) {
+    this.host = host;
+    this.fields = new Scope(null);
+  }
+
+  final Object host;
+
+  @Override
+  public String toString() {
+    return "<host " + host.getClass().getSimpleName() + ">";
+  }
+}
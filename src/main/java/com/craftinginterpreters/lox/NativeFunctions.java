@@ -1,24 +1,64 @@
 package com.craftinginterpreters.lox;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
+// Natives are shared by every Interpreter, so they must not hold any state of
+// their own. Anything run-specific is reached through the `interpreter` argument.
 class NativeFunctions {
-  public static LoxCallable CLOCK = new LoxCallable() {
-    @Override
-    public int arity() { return 0; }
+  // Simple natives are plain static methods; see NativeBinding.
 
-    @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
-      return (double)System.currentTimeMillis() / 1000.0;
-    }
+  @LoxNative
+  static double clock() {
+    return (double)System.currentTimeMillis() / 1000.0;
+  }
 
-    @Override
-    public String toString() { 
-      return "<native fn: clock>"; 
-    }
-  };
+  // Math. Calls to these that the evaluator recognizes skip the call
+  // entirely; see Intrinsic.
+
+  @LoxNative static double sqrt(double x) { return Math.sqrt(x); }
+  @LoxNative static double cbrt(double x) { return Math.cbrt(x); }
+  @LoxNative static double floor(double x) { return Math.floor(x); }
+  @LoxNative static double ceil(double x) { return Math.ceil(x); }
+  @LoxNative static double round(double x) { return Math.floor(x + 0.5); }
+  @LoxNative static double abs(double x) { return Math.abs(x); }
+  @LoxNative static double exp(double x) { return Math.exp(x); }
+  @LoxNative static double log(double x) { return Math.log(x); }
+  @LoxNative static double sin(double x) { return Math.sin(x); }
+  @LoxNative static double cos(double x) { return Math.cos(x); }
+  @LoxNative static double tan(double x) { return Math.tan(x); }
+  @LoxNative static double atan(double x) { return Math.atan(x); }
+  @LoxNative static double pow(double x, double y) { return Math.pow(x, y); }
+  @LoxNative static double atan2(double y, double x) { return Math.atan2(y, x); }
+  @LoxNative static double min(double x, double y) { return Math.min(x, y); }
+  @LoxNative static double max(double x, double y) { return Math.max(x, y); }
+
+  // In [0, 1), from the calling interpreter's own generator.
+  @LoxNative
+  static double random(Interpreter interpreter) {
+    return interpreter.random().nextDouble();
+  }
 
-  public static LoxCallable ASSERT = new LoxCallable() {
+  // Makes the calling interpreter's random() sequence repeatable.
+  @LoxNative
+  static void random_seed(Interpreter interpreter, double seed) {
+    interpreter.random = new Random((long) seed);
+  }
+
+  // How memoizing `function` has gone; see Memo. Only "memoized" is set
+  // unless the script runs with --memoize and the function is pure.
+  @LoxNative
+  static LoxMap memo_stats(LoxFunction function) {
+    Memo memo = function.memo();
+    if (memo != null) return memo.stats();
+    LoxMap stats = new LoxMap();
+    stats.set("memoized", false);
+    return stats;
+  }
+
+  public static final LoxCallable ASSERT = new LoxCallable() {
     @Override
     public int arity() { return 1; }
 
@@ -42,7 +82,7 @@ class NativeFunctions {
     }
   };
 
-  public static LoxCallable ASSERT_RAISES = new LoxCallable() {
+  public static final LoxCallable ASSERT_RAISES = new LoxCallable() {
     @Override
     public int arity() { return 1; }
 
@@ -89,4 +129,347 @@ class NativeFunctions {
       return "<native fn: assert_raises>"; 
     }
   };
+
+  // Arrays. See LoxArray.
+
+  public static final LoxCallable ARRAY = new NativeFunction("array", 0) {
+    @Override
+    public boolean isValidArity(int numArgs) { return numArgs >= arity(); }
+
+    @Override
+    public String arityString() { return arity() + "+"; }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+      LoxArray array = new LoxArray(arguments.size());
+      for (Object element : arguments) {
+        array.push(element);
+      }
+      return array;
+    }
+  };
+
+  public static final LoxCallable ARRAY_GET = new NativeFunction("array_get", 2) {
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+      LoxArray array = toArray(interpreter, arguments.get(0));
+      synchronized (array) {
+        return array.get(toIndex(interpreter, arguments.get(1), array.length()));
+      }
+    }
+  };
+
+  public static final LoxCallable ARRAY_SET = new NativeFunction("array_set", 3) {
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+      LoxArray array = toArray(interpreter, arguments.get(0));
+      synchronized (array) {
+        array.set(toIndex(interpreter, arguments.get(1), array.length()), arguments.get(2));
+      }
+      return arguments.get(2);
+    }
+  };
+
+  public static final LoxCallable ARRAY_PUSH = new NativeFunction("array_push", 2) {
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+      LoxArray array = toArray(interpreter, arguments.get(0));
+      synchronized (array) {
+        array.push(arguments.get(1));
+        return (double) array.length();
+      }
+    }
+  };
+
+  public static final LoxCallable ARRAY_POP = new NativeFunction("array_pop", 1) {
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+      LoxArray array = toArray(interpreter, arguments.get(0));
+      synchronized (array) {
+        if (array.length() == 0) throw error(interpreter, "Cannot pop from an empty array.");
+        return array.pop();
+      }
+    }
+  };
+
+  public static final LoxCallable ARRAY_LENGTH = new NativeFunction("array_length", 1) {
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+      LoxArray array = toArray(interpreter, arguments.get(0));
+      synchronized (array) {
+        return (double) array.length();
+      }
+    }
+  };
+
+  // Maps. See LoxMap.
+
+  public static final LoxCallable MAP = new NativeFunction("map", 0) {
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+      return new LoxMap();
+    }
+  };
+
+  public static final LoxCallable MAP_GET = new NativeFunction("map_get", 2) {
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+      LoxMap map = toMap(interpreter, arguments.get(0));
+      Object key = toKey(interpreter, arguments.get(1));
+      synchronized (map) {
+        return map.get(key);
+      }
+    }
+  };
+
+  public static final LoxCallable MAP_SET = new NativeFunction("map_set", 3) {
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+      LoxMap map = toMap(interpreter, arguments.get(0));
+      Object key = toKey(interpreter, arguments.get(1));
+      synchronized (map) {
+        map.set(key, arguments.get(2));
+      }
+      return arguments.get(2);
+    }
+  };
+
+  public static final LoxCallable MAP_HAS = new NativeFunction("map_has", 2) {
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+      LoxMap map = toMap(interpreter, arguments.get(0));
+      Object key = toKey(interpreter, arguments.get(1));
+      synchronized (map) {
+        return map.has(key);
+      }
+    }
+  };
+
+  // Returns whether the key was there.
+  public static final LoxCallable MAP_DELETE = new NativeFunction("map_delete", 2) {
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+      LoxMap map = toMap(interpreter, arguments.get(0));
+      Object key = toKey(interpreter, arguments.get(1));
+      synchronized (map) {
+        return map.delete(key);
+      }
+    }
+  };
+
+  public static final LoxCallable MAP_SIZE = new NativeFunction("map_size", 1) {
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+      LoxMap map = toMap(interpreter, arguments.get(0));
+      synchronized (map) {
+        return (double) map.size();
+      }
+    }
+  };
+
+  // A new array of the keys.
+  public static final LoxCallable MAP_KEYS = new NativeFunction("map_keys", 1) {
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+      LoxMap map = toMap(interpreter, arguments.get(0));
+      synchronized (map) {
+        LoxArray keys = new LoxArray(map.size());
+        for (int slot = map.nextSlot(0); slot >= 0; slot = map.nextSlot(slot + 1)) {
+          keys.push(map.keyAt(slot));
+        }
+        return keys;
+      }
+    }
+  };
+
+  // Calls `function(key, value)` for every entry, walking the map in place.
+  // Adding or removing keys meanwhile is an error; assigning to existing
+  // keys is fine.
+  public static final LoxCallable MAP_EACH = new NativeFunction("map_each", 2) {
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+      LoxMap map = toMap(interpreter, arguments.get(0));
+      if (!(arguments.get(1) instanceof LoxCallable) || !((LoxCallable) arguments.get(1)).isValidArity(2)) {
+        throw error(interpreter, "Expected signature: map_each(map, function(key, value)).");
+      }
+      LoxCallable function = (LoxCallable) arguments.get(1);
+
+      // The map is only locked between calls, so `function` can use it too.
+      int modifications;
+      synchronized (map) {
+        modifications = map.modifications();
+      }
+      for (int slot = 0; ; slot++) {
+        List<Object> entry = new ArrayList<>(2);
+        synchronized (map) {
+          if (map.modifications() != modifications) {
+            throw error(interpreter, "Map keys changed during map_each.");
+          }
+          slot = map.nextSlot(slot);
+          if (slot < 0) return null;
+          entry.add(map.keyAt(slot));
+          entry.add(map.valueAt(slot));
+        }
+        interpreter.callFunction(function, entry);
+      }
+    }
+  };
+
+  // Tasks. See LoxTask.
+
+  // spawn(function, args...) calls `function(args...)` on a thread of its
+  // own, and returns the task.
+  public static final LoxCallable SPAWN = new NativeFunction("spawn", 1) {
+    @Override
+    public boolean isValidArity(int numArgs) { return numArgs >= arity(); }
+
+    @Override
+    public String arityString() { return arity() + "+"; }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+      if (!(arguments.get(0) instanceof LoxCallable)) {
+        throw error(interpreter, "Expected signature: spawn(function, args...).");
+      }
+      LoxCallable function = (LoxCallable) arguments.get(0);
+      List<Object> functionArguments = new ArrayList<>(arguments.subList(1, arguments.size()));
+      if (!function.isValidArity(functionArguments.size())) {
+        throw error(interpreter, String.format("Expected %s arguments to %s, but got %s.",
+          function.arityString(), function, functionArguments.size()));
+      }
+      return LoxTask.spawn(interpreter, function, functionArguments);
+    }
+  };
+
+  // Waits for `task` to finish, and returns its result.
+  @LoxNative
+  static Object await(Interpreter interpreter, LoxTask task) {
+    if (task == null) throw error(interpreter, "Expected a task but got nil.");
+    return task.await(interpreter);
+  }
+
+  // Blocks the calling task, or the script, for `seconds`.
+  @LoxNative
+  static void sleep(Interpreter interpreter, double seconds) {
+    try {
+      Thread.sleep(Math.max(0, (long) (seconds * 1000)));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw error(interpreter, "Interrupted while sleeping.");
+    }
+  }
+
+  // Parallel. See Parallel.
+
+  // A new array of `function(element)` for each element, computed on all
+  // cores.
+  @LoxNative
+  static LoxArray parallel_map(Interpreter interpreter, LoxArray array, LoxCallable function) {
+    checkParallel(interpreter, array, function, 1, "parallel_map(array, function(element))");
+    return new Parallel(interpreter, function, ForkJoinPool.commonPool()).map(array);
+  }
+
+  // Folds the elements with `function(accumulator, element)`, on all cores.
+  // `function` must be associative, and `initial` its identity.
+  @LoxNative
+  static Object parallel_reduce(Interpreter interpreter, LoxArray array, LoxCallable function, Object initial) {
+    checkParallel(interpreter, array, function, 2, "parallel_reduce(array, function(accumulator, element), initial)");
+    return new Parallel(interpreter, function, ForkJoinPool.commonPool()).reduce(array, initial);
+  }
+
+  private static void checkParallel(Interpreter interpreter, LoxArray array, LoxCallable function, int arity,
+      String signature) {
+    if (array == null || function == null || !function.isValidArity(arity)) {
+      throw error(interpreter, "Expected signature: " + signature + ".");
+    }
+  }
+
+  // Actors. See LoxActor.
+
+  // A new actor holding a copy of `state`, which handles each message with
+  // `state = handler(state, message)`.
+  @LoxNative
+  static LoxActor actor(Interpreter interpreter, LoxFunction handler, Object state) {
+    if (handler == null || !handler.isValidArity(2)) {
+      throw error(interpreter, "Expected signature: actor(function(state, message), state).");
+    }
+    return LoxActor.start(interpreter, handler, state);
+  }
+
+  // Queues a copy of `message` for `actor`, and returns without waiting.
+  @LoxNative
+  static void send(Interpreter interpreter, LoxActor actor, Object message) {
+    checkActor(interpreter, actor).send(interpreter, message);
+  }
+
+  // The number of messages sent to `actor` that it hasn't handled yet.
+  @LoxNative
+  static double actor_queue_depth(Interpreter interpreter, LoxActor actor) {
+    return checkActor(interpreter, actor).queueDepth();
+  }
+
+  // Waits until `actor` has handled every message, and returns a copy of
+  // its state.
+  @LoxNative
+  static Object actor_wait(Interpreter interpreter, LoxActor actor) {
+    return checkActor(interpreter, actor).await(interpreter);
+  }
+
+  private static LoxActor checkActor(Interpreter interpreter, LoxActor actor) {
+    if (actor == null) throw error(interpreter, "Expected an actor but got nil.");
+    return actor;
+  }
+
+  static LoxMap toMap(Interpreter interpreter, Object value) {
+    if (value instanceof LoxMap) return (LoxMap) value;
+    throw error(interpreter, String.format("Expected a map but got %s.", value));
+  }
+
+  static Object toKey(Interpreter interpreter, Object key) {
+    if (key == null) throw error(interpreter, "Map keys cannot be nil.");
+    return ConcatString.flatten(key);
+  }
+
+  static LoxArray toArray(Interpreter interpreter, Object value) {
+    if (value instanceof LoxArray) return (LoxArray) value;
+    throw error(interpreter, String.format("Expected an array but got %s.", value));
+  }
+
+  // An integer in [0, length).
+  static int toIndex(Interpreter interpreter, Object value, int length) {
+    if (value instanceof Double) {
+      double index = (Double) value;
+      if (index == (int) index && index >= 0 && index < length) return (int) index;
+    }
+    throw error(interpreter, String.format("Array index %s out of bounds for length %d.", value, length));
+  }
+
+  // A RuntimeError reported at the statement that called the native.
+  static RuntimeError error(Interpreter interpreter, String message) {
+    Token where = interpreter.executionStack.isEmpty()
+      ? new Token(TokenType.EOF, "", null, 0)
+      : interpreter.executionStack.peek().indicator;
+    return new RuntimeError(where, message).withInterpreterState(interpreter);
+  }
+}
+
+// Base for natives that don't need more than a name and an arity.
+abstract class NativeFunction implements LoxCallable {
+  NativeFunction(String name, int arity) {
+    this.name = name;
+    this.arity = arity;
+  }
+
+  final String name;
+  private final int arity;
+
+  @Override
+  public int arity() {
+    return arity;
+  }
+
+  @Override
+  public String toString() {
+    return "<native fn: " + name + ">";
+  }
 }
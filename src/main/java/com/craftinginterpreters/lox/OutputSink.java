@@ -0,0 +1,79 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+/*
+Where `print` writes. Output is collected in a buffer and written out in
+large chunks, instead of System.out locking and flushing on every line.
+
+When the buffer is written depends on the Flush policy. However the sink
+is configured, the buffer is always written out:
+- before a diagnostic is printed to stderr, so the diagnostic comes after
+  the output of the statements that ran before it;
+- when the sink is closed at exit.
+*/
+class OutputSink {
+  static final int DEFAULT_BUFFER_SIZE = 64 << 10;
+
+  enum Flush {
+    LINE, // After every print. For terminals and the REPL.
+    SIZE, // Whenever the buffer fills up.
+  }
+
+  // Prints straight to System.out, as the interpreter always has. Used by
+  // interpreters nobody configured otherwise, e.g. the REPL and embedders.
+  static final OutputSink SYSTEM_OUT = new OutputSink(null, Flush.LINE, 0) {
+    @Override
+    synchronized void println(Object value) {
+      System.out.println(value);
+    }
+
+    @Override
+    synchronized void flush() {
+      System.out.flush();
+    }
+
+    @Override
+    synchronized void close() {
+      System.out.flush();
+    }
+  };
+
+  OutputSink(Writer out, Flush flush, int bufferSize) {
+    this.out = out;
+    this.flush = flush;
+    this.bufferSize = bufferSize;
+    this.buffer = new StringBuilder(bufferSize);
+  }
+
+  private final Writer out;
+  private final Flush flush;
+  private final int bufferSize;
+  private final StringBuilder buffer; // Guarded by `this`.
+
+  synchronized void println(Object value) {
+    buffer.append(value).append(System.lineSeparator());
+    if (flush == Flush.LINE || buffer.length() >= bufferSize) flush();
+  }
+
+  synchronized void flush() {
+    try {
+      out.append(buffer);
+      out.flush();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    buffer.setLength(0);
+  }
+
+  synchronized void close() {
+    flush();
+    try {
+      out.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,147 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+parallel_map(array, function) and parallel_reduce(array, function, initial)
+for CPU-bound scripts: they call `function` on the elements across the
+cores of a ForkJoinPool.
+
+The elements are cut into ranges, a few per core, and each range is handed
+to a worker with an Interpreter.fork() of its own. parallel_map stores each
+result at its element's index, so the new array is in order however the
+workers are scheduled. parallel_reduce folds each range from `initial` and
+then folds the ranges' results together, in order; that gives the same
+result as a sequential fold only if `function` is associative and `initial`
+is its identity, e.g. addition and 0.
+
+Workers are isolated: assigning to any variable outside the function they
+are running is a runtime error (see Interpreter.checkIsolated), so they
+can't race on shared variables. Objects they are handed are not guarded,
+beyond each array and map native being atomic.
+
+The first error in any worker stops the others from starting more calls,
+and is thrown once they have all stopped.
+*/
+class Parallel {
+  Parallel(Interpreter caller, LoxCallable function, ForkJoinPool pool) {
+    this.caller = caller;
+    this.function = function;
+    this.pool = pool;
+  }
+
+  private final Interpreter caller;
+  private final LoxCallable function;
+  private final ForkJoinPool pool;
+  private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+  LoxArray map(LoxArray array) {
+    Object[] elements = snapshot(array);
+    Object[] results = new Object[elements.length];
+    run(elements.length, (from, until) -> {
+      Interpreter worker = worker();
+      for (int i = from; i < until && failure.get() == null; i++) {
+        results[i] = worker.callFunction(function, Collections.singletonList(elements[i]));
+      }
+      return null;
+    });
+
+    LoxArray mapped = new LoxArray(results.length);
+    for (Object result : results) {
+      mapped.push(result);
+    }
+    return mapped;
+  }
+
+  Object reduce(LoxArray array, Object initial) {
+    Object[] elements = snapshot(array);
+    List<Object> partials = run(elements.length, (from, until) -> {
+      Interpreter worker = worker();
+      Object accumulator = initial;
+      for (int i = from; i < until && failure.get() == null; i++) {
+        accumulator = worker.callFunction(function, pair(accumulator, elements[i]));
+      }
+      return accumulator;
+    });
+
+    Interpreter worker = worker();
+    Object result = initial;
+    for (Object partial : partials) {
+      result = worker.callFunction(function, pair(result, partial));
+    }
+    return result;
+  }
+
+  private interface Range {
+    Object run(int from, int until);
+  }
+
+  // Runs `range` over [0, length) in pieces, and returns their results in order.
+  private List<Object> run(int length, Range range) {
+    int pieces = Math.max(1, Math.min(pool.getParallelism() * 4, length));
+    List<Future<Object>> futures = new ArrayList<>(pieces);
+    for (int i = 0; i < pieces; i++) {
+      int from = (int) ((long) length * i / pieces);
+      int until = (int) ((long) length * (i + 1) / pieces);
+      futures.add(pool.submit((Callable<Object>) () -> {
+        try {
+          return range.run(from, until);
+        } catch (RuntimeException | Error e) {
+          failure.compareAndSet(null, e);
+          return null;
+        }
+      }));
+    }
+
+    List<Object> results = new ArrayList<>(pieces);
+    for (Future<Object> future : futures) {
+      results.add(join(future));
+    }
+    Throwable first = failure.get();
+    if (first instanceof Error) throw (Error) first;
+    if (first != null) throw (RuntimeException) first;
+    return results;
+  }
+
+  private Object join(Future<Object> future) {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw NativeFunctions.error(caller, "Interrupted while waiting for parallel workers.");
+    }
+  }
+
+  private Interpreter worker() {
+    Interpreter worker = caller.fork();
+    worker.isolated = true;
+    return worker;
+  }
+
+  // The elements as they are now; the array may change meanwhile.
+  private static Object[] snapshot(LoxArray array) {
+    synchronized (array) {
+      Object[] elements = new Object[array.length()];
+      for (int i = 0; i < elements.length; i++) {
+        elements[i] = array.get(i);
+      }
+      return elements;
+    }
+  }
+
+  private static List<Object> pair(Object a, Object b) {
+    List<Object> pair = new ArrayList<>(2);
+    pair.add(a);
+    pair.add(b);
+    return pair;
+  }
+}
@@ -0,0 +1,130 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import static com.craftinginterpreters.lox.TokenType.EOF;
+
+/*
+Scans a large source on several cores. Produces exactly the TokenBuffer, and
+reports exactly the errors, that Scanner.scanTokenBuffer() would.
+
+The source is cut into chunks just after a newline, so a `//` comment can
+never straddle a cut. Each chunk is scanned on its own, speculatively
+assuming it starts between tokens. A string literal can still cross a cut:
+the chunk it starts in scans it to the end and stops past the cut. When
+stitching in order, a chunk whose speculative start doesn't match where the
+previous chunk really stopped is scanned again from the right place.
+
+Lines are counted from 1 within each chunk and shifted once the number of
+newlines before the chunk is known. Errors are held back and replayed with
+the corrected line, in source order.
+*/
+class ParallelScanner {
+  static final int MIN_CHUNK_CHARS = 1 << 20;
+
+  ParallelScanner(String source, ErrorReporter reporter, ForkJoinPool pool) {
+    this.source = source;
+    this.text = new StringSource(source);
+    this.reporter = reporter;
+    this.pool = pool;
+  }
+
+  private final String source;
+  private final SourceText text;
+  private final ErrorReporter reporter;
+  private final ForkJoinPool pool;
+
+  TokenBuffer scanTokens() {
+    int[] cuts = cuts();
+
+    List<Future<Chunk>> futures = new ArrayList<>();
+    for (int i = 0; i + 1 < cuts.length; i++) {
+      int from = cuts[i];
+      int until = cuts[i + 1];
+      futures.add(pool.submit((Callable<Chunk>) () -> scan(from, until)));
+    }
+
+    TokenBuffer tokens = new TokenBuffer(text, source.length() / 5);
+    int position = 0;
+    int lineOffset = 0;
+    for (int i = 0; i < futures.size(); i++) {
+      Chunk chunk = join(futures.get(i));
+      int until = cuts[i + 1];
+
+      // The previous chunk ran through this whole one.
+      if (position >= until) continue;
+      // The previous chunk ran past the cut; the speculation was wrong.
+      if (chunk.from != position) chunk = scan(position, until);
+
+      tokens.append(chunk.tokens, lineOffset);
+      for (ErrorReporter.Report error : chunk.errors.reports) {
+        reporter.report(error.line + lineOffset, error.where, error.message);
+      }
+      lineOffset += chunk.lines;
+      position = chunk.end;
+    }
+
+    tokens.add(EOF, source.length(), 0, lineOffset + 1);
+    return tokens;
+  }
+
+  // Chunk boundaries, each just after a newline. Includes 0 and the length.
+  private int[] cuts() {
+    int chunks = Math.max(1, Math.min(
+      pool.getParallelism() * 4,
+      source.length() / MIN_CHUNK_CHARS));
+    int target = source.length() / chunks;
+
+    List<Integer> cuts = new ArrayList<>();
+    cuts.add(0);
+    for (int i = 1; i < chunks; i++) {
+      int newline = source.indexOf('\n', Math.max(i * target, cuts.get(cuts.size() - 1)));
+      if (newline < 0) break;
+      if (newline + 1 > cuts.get(cuts.size() - 1)) cuts.add(newline + 1);
+    }
+    if (cuts.get(cuts.size() - 1) < source.length()) cuts.add(source.length());
+
+    return cuts.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  private Chunk scan(int from, int until) {
+    ErrorReporter.Buffered errors = new ErrorReporter.Buffered();
+    Scanner scanner = new Scanner(text, errors);
+    TokenBuffer tokens = new TokenBuffer(text, (until - from) / 5);
+    int end = scanner.scanRange(from, until, tokens);
+    return new Chunk(from, end, scanner.linesScanned(), tokens, errors);
+  }
+
+  private static Chunk join(Future<Chunk> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  private static class Chunk {
+    Chunk(int from, int end, int lines, TokenBuffer tokens, ErrorReporter.Buffered errors) {
+      this.from = from;
+      this.end = end;
+      this.lines = lines;
+      this.tokens = tokens;
+      this.errors = errors;
+    }
+
+    final int from;
+    final int end;
+    final int lines;
+    final TokenBuffer tokens;
+    final ErrorReporter.Buffered errors;
+  }
+}
@@ -6,25 +6,52 @@ import java.util.List;
 import static com.craftinginterpreters.lox.TokenType.*;
 
 class Parser {
-  private final List<Token> tokens;
-  private int currentToken = 0;
+  private final TokenSource tokens;
+  private final ErrorReporter reporter;
+  // Whether function bodies are only brace-matched, and parsed on first call.
+  // Syntax errors inside them are then not reported here.
+  private final boolean lazyBodies;
 
-  Parser(List<Token> tokens) {
+  Parser(List<Token> tokens, ErrorReporter reporter) {
+    this(new ListTokenSource(tokens), reporter);
+  }
+
+  Parser(TokenBuffer tokens, ErrorReporter reporter) {
+    this(tokens.cursor(), reporter);
+  }
+
+  Parser(TokenSource tokens, ErrorReporter reporter) {
+    this(tokens, reporter, false);
+  }
+
+  Parser(TokenSource tokens, ErrorReporter reporter, boolean lazyBodies) {
     this.tokens = tokens;
+    this.reporter = reporter;
+    this.lazyBodies = lazyBodies;
   }
   List<Statement> parse() {
     List<Statement> statements = new ArrayList<>();
-    while (!isAtEnd()) {
-      statements.add(declaration());
+    while (hasNext()) {
+      statements.add(parseNext());
     }
 
     return statements; // [parse-error-handling]
   }
+  // For parsing one top-level declaration at a time, e.g. to execute each
+  // before the rest of the source has even been scanned.
+  boolean hasNext() {
+    return !isAtEnd();
+  }
+  // Null if the declaration had a syntax error.
+  Statement parseNext() {
+    return declaration();
+  }
   private Statement declaration() {
     try {
       if (check(VAR)) return varDeclaration();
       if (match(FUN)) return funcDeclaration();
       if (check(CLASS)) return classDeclaration();
+      if (check(IMPORT)) return importDeclaration();
 
       return statement();
     } catch (ParseError error) {
@@ -41,21 +68,26 @@ class Parser {
       initializer = expression();
     }
 
-    consume(SEMICOLON, "Expect ';' after variable declaration.");
+    expect(SEMICOLON, "Expect ';' after variable declaration.");
     return new VarStmt(name, initializer, varToken);
   }
   private Statement funcDeclaration() {
     List<Statement> statements = new ArrayList<>();
 
     Token identifier = consume(IDENTIFIER, "Expect function name.");
-    consume(LEFT_PAREN, String.format("Expect '(' after function name '%s'.", identifier));
-    _GetExpression getParameter = () -> parameter();
+    expect(LEFT_PAREN, String.format("Expect '(' after function name '%s'.", identifier));
+    _GetExpression<Var> getParameter = () -> parameter();
     Series<Var> parameters = series(RIGHT_PAREN, getParameter);
     Token blockToken = consume(LEFT_BRACE, "Expect '{' after function header.");
+    if (lazyBodies) {
+      TokenSource body = tokens.skipBlock();
+      expect(RIGHT_BRACE, String.format("Expect '}' after function body for '%s'.", identifier));
+      return new FuncStmt(identifier, parameters, body, blockToken, identifier);
+    }
     while (!check(RIGHT_BRACE) && !isAtEnd()) {
       statements.add(declaration());
     }
-    consume(RIGHT_BRACE, String.format("Expect '}' after function body for '%s'.", identifier));
+    expect(RIGHT_BRACE, String.format("Expect '}' after function body for '%s'.", identifier));
 
     return new FuncStmt(identifier, parameters, new BlockStmt(statements, blockToken), identifier);
   }
@@ -66,7 +98,7 @@ class Parser {
     Token classToken = consume(CLASS, "Expect keyword 'class'.");
     Token className = consume(IDENTIFIER, "Expect identifier for class name.");
     // (alin) this doesn't support extension yet.
-    consume(LEFT_BRACE, "Expect '{' after class name.");
+    expect(LEFT_BRACE, "Expect '{' after class name.");
     while (!check(RIGHT_BRACE) && !isAtEnd()) {
       // (alin) for now, body only supports methods and properties. Disallow nested classes
       if (check(VAR)) {
@@ -76,11 +108,17 @@ class Parser {
         methods.add((FuncStmt) funcDeclaration());
       }
     }
-    consume(RIGHT_BRACE, "Expect '}' after class definition.");
+    expect(RIGHT_BRACE, "Expect '}' after class definition.");
     // (alin) not sure if this suffices.
     // (alin) this doesn't support constructors.
     return new ClassStmt(className, properties, methods, classToken);
   }
+  private Statement importDeclaration() {
+    Token importToken = consume(IMPORT, "Expect keyword 'import'.");
+    Token path = consume(STRING, "Expect module path string after 'import'.");
+    expect(SEMICOLON, "Expect ';' after import.");
+    return new ImportStmt(path, importToken);
+  }
   private Var parameter() {
     if (match(IDENTIFIER)) {
       return new Var(previous());
@@ -89,6 +127,7 @@ class Parser {
   }
   private Statement statement() {
     if (check(RETURN)) return returnStatement();
+    if (check(YIELD)) return yieldStatement();
     if (check(PRINT)) return printStatement();
     if (match(LEFT_BRACE)) return new BlockStmt(block(), previous());
     if (check(IF)) return conditional();
@@ -102,19 +141,27 @@ class Parser {
     if (match(SEMICOLON)) return new ReturnStmt(new Empty(), returnToken);
 
     Expr expr = expression();
-    consume(SEMICOLON, "Expect ';' after return statement.");
+    expect(SEMICOLON, "Expect ';' after return statement.");
     return new ReturnStmt(expr, returnToken);
   }
+  private Statement yieldStatement() {
+    Token yieldToken = consume(YIELD, "Expect 'yield' keyword.");
+    if (match(SEMICOLON)) return new YieldStmt(new Empty(), yieldToken);
+
+    Expr expr = expression();
+    expect(SEMICOLON, "Expect ';' after yield statement.");
+    return new YieldStmt(expr, yieldToken);
+  }
   private Statement printStatement() {
     Token printToken = consume(PRINT, "Expect 'print' keyword.");
     Expr value = expression();
-    consume(SEMICOLON, "Expect ';' after value.");
+    expect(SEMICOLON, "Expect ';' after value.");
     return new PrintStmt(value, printToken);
   }
   private Statement expressionStatement() {
     Token firstToken = peek();
     Expr expr = expression();
-    consume(SEMICOLON, "Expect ';' after expression.");
+    expect(SEMICOLON, "Expect ';' after expression.");
     return new ExprStmt(expr, firstToken);
   }
   private List<Statement> block() {
@@ -124,17 +171,17 @@ class Parser {
       statements.add(declaration());
     }
 
-    consume(RIGHT_BRACE, "Expect '}' after blocYk.");
+    expect(RIGHT_BRACE, "Expect '}' after blocYk.");
     return statements;
   }
   private Statement forLoop() {
     Token forToken = consume(FOR, "Expect 'for' keyword.");
-    consume(LEFT_PAREN, "Expect '(' after 'for'.");
+    expect(LEFT_PAREN, "Expect '(' after 'for'.");
     Statement initializer = varDeclaration();
     Expr condition = expression();
     Token iteratorToken = consume(SEMICOLON, "Expect ';' after 'for' condition.");
-    Expr iterator = assignment();
-    consume(RIGHT_PAREN, "Expect ')' after 'for'.");
+    Expr iterator = expression();
+    expect(RIGHT_PAREN, "Expect ')' after 'for'.");
     Statement body = statement();
     return new ForStmt(initializer, condition, new ExprStmt(iterator, iteratorToken), body, forToken);
   }
@@ -156,89 +203,67 @@ class Parser {
     return new IfStmt(condition, then, otherwise, ifToken);
   }
   private Expr expression() {
-    return assignment();
-  }
-  private Expr assignment() {
-    Expr expr = or();
-
-    if (match(EQUAL)) {
-      Token equals = previous();
-      Expr value = assignment();
-      return new Assign(expr, equals, value);
-    }
-
-    return expr;
-  }
-  private Expr or() {
-    Expr expr = and();
-
-    if (match(OR)) {
-      Token operator = previous();
-      Expr right = and();
-      expr = new Logical(expr, operator, right);
-    }
-
-    return expr;
-    
-  }
-  private Expr and() {
-    Expr expr = equality();
-
-    if (match(AND)) {
-      Token operator = previous();
-      Expr right = equality();
-      expr = new Logical(expr, operator, right);
-    }
-
-    return expr;
-  }
-  private Expr equality() {
-    Expr expr = comparison();
-
-    while (match(BANG_EQUAL, EQUAL_EQUAL)) {
-      Token operator = previous();
-      Expr right = comparison();
-      expr = new Binary(expr, operator, right);
-    }
-
-    return expr;
-  }
-  private Expr comparison() {
-    Expr expr = term();
-
-    while (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
-      Token operator = previous();
-      Expr right = term();
-      expr = new Binary(expr, operator, right);
-    }
-
-    return expr;
-  }
-  private Expr term() {
-    Expr expr = factor();
-
-    while (match(MINUS, PLUS)) {
-      Token operator = previous();
-      Expr right = factor();
-      expr = new Binary(expr, operator, right);
-    }
-
-    return expr;
-  }
-  private Expr factor() {
+    return expression(PREC_ASSIGNMENT);
+  }
+
+  // Binding power of each token when it appears after an operand, indexed by
+  // TokenType ordinal. 0 means the token doesn't continue an expression.
+  private static final int PREC_ASSIGNMENT = 1;
+  private static final int PREC_OR = 2;
+  private static final int PREC_AND = 3;
+  private static final int PREC_EQUALITY = 4;
+  private static final int PREC_COMPARISON = 5;
+  private static final int PREC_TERM = 6;
+  private static final int PREC_FACTOR = 7;
+  private static final int[] INFIX_PRECEDENCE = new int[TokenType.values().length];
+  static {
+    INFIX_PRECEDENCE[EQUAL.ordinal()] = PREC_ASSIGNMENT;
+    INFIX_PRECEDENCE[OR.ordinal()] = PREC_OR;
+    INFIX_PRECEDENCE[AND.ordinal()] = PREC_AND;
+    INFIX_PRECEDENCE[BANG_EQUAL.ordinal()] = PREC_EQUALITY;
+    INFIX_PRECEDENCE[EQUAL_EQUAL.ordinal()] = PREC_EQUALITY;
+    INFIX_PRECEDENCE[GREATER.ordinal()] = PREC_COMPARISON;
+    INFIX_PRECEDENCE[GREATER_EQUAL.ordinal()] = PREC_COMPARISON;
+    INFIX_PRECEDENCE[LESS.ordinal()] = PREC_COMPARISON;
+    INFIX_PRECEDENCE[LESS_EQUAL.ordinal()] = PREC_COMPARISON;
+    INFIX_PRECEDENCE[MINUS.ordinal()] = PREC_TERM;
+    INFIX_PRECEDENCE[PLUS.ordinal()] = PREC_TERM;
+    INFIX_PRECEDENCE[SLASH.ordinal()] = PREC_FACTOR;
+    INFIX_PRECEDENCE[STAR.ordinal()] = PREC_FACTOR;
+  }
+
+  // Precedence climbing: parses operands with unary() and folds in every
+  // following operator that binds at least as tightly as `minPrecedence`.
+  private Expr expression(int minPrecedence) {
     Expr expr = unary();
+    // 'and' and 'or' don't chain ("a or b or c" is an error), so after one
+    // of them only looser operators may follow.
+    int maxPrecedence = PREC_FACTOR;
 
-    while (match(SLASH, STAR)) {
-      Token operator = previous();
-      Expr right = unary();
-      expr = new Binary(expr, operator, right);
+    while (true) {
+      TokenType type = tokens.peekType();
+      int precedence = INFIX_PRECEDENCE[type.ordinal()];
+      if (precedence < minPrecedence || precedence > maxPrecedence) break;
+
+      Token operator = advance();
+      if (type == EQUAL) {
+        // Right-associative, so it takes everything that follows.
+        return new Assign(expr, operator, expression(PREC_ASSIGNMENT));
+      } else if (type == OR || type == AND) {
+        expr = new Logical(expr, operator, expression(precedence + 1));
+        maxPrecedence = precedence - 1;
+      } else {
+        expr = new Binary(expr, operator, expression(precedence + 1));
+        maxPrecedence = precedence;
+      }
     }
 
     return expr;
   }
   private Expr unary() {
-    if (match(BANG, MINUS)) {
-      Token operator = previous();
+    TokenType type = tokens.peekType();
+    if (type == BANG || type == MINUS) {
+      Token operator = advance();
       Expr right = unary();
       return new Unary(operator, right);
     }
@@ -258,7 +283,7 @@ class Parser {
         expr = new Call(
           token, 
           expr, 
-          series(RIGHT_PAREN, (_GetExpression)() -> expression())
+          series(RIGHT_PAREN, () -> expression())
         );
       } else {
         break;
@@ -280,13 +305,13 @@ class Parser {
     if (match(NIL)) return new Literal(null);
     if (match(THIS)) return new This(previous());
 
-    if (match(NUMBER, STRING)) {
+    if (match(NUMBER) || match(STRING)) {
       return new Literal(previous().literal);
     }
 
     if (match(LEFT_PAREN)) {
       Expr expr = expression();
-      consume(RIGHT_PAREN, "Expect ')' after expression.");
+      expect(RIGHT_PAREN, "Expect ')' after expression.");
       return new Grouping(expr);
     }
 
@@ -303,15 +328,13 @@ class Parser {
         args.add(getExpression.call());
       }
     }
-    consume(closingType, String.format("Expect %s.", closingType));
+    expect(closingType, String.format("Expect %s.", closingType));
     return new Series<T>(args);
   }
-  private boolean match(TokenType... types) {
-    for (TokenType type : types) {
-      if (check(type)) {
-        advance();
-        return true;
-      }
+  private boolean match(TokenType type) {
+    if (check(type)) {
+      tokens.advance();
+      return true;
     }
 
     return false;
@@ -321,48 +344,60 @@ class Parser {
 
     throw error(peek(), message);
   }
+  // Like consume(), for tokens the AST doesn't keep. Skipping the Token
+  // avoids materializing it from the TokenBuffer.
+  private void expect(TokenType type, String message) {
+    if (check(type)) {
+      tokens.advance();
+      return;
+    }
+
+    throw error(peek(), message);
+  }
   private boolean check(TokenType type) {
     if (isAtEnd()) return false;
-    return peek().type == type;
+    return tokens.peekType() == type;
   }
   private Token advance() {
-    if (!isAtEnd()) currentToken++;
+    tokens.advance();
     return previous();
   }
   private boolean isAtEnd() {
-    return peek().type == EOF;
+    return tokens.peekType() == EOF;
   }
 
   private Token peek() {
-    return tokens.get(currentToken);
+    return tokens.peek();
   }
 
   private Token previous() {
-    return tokens.get(currentToken - 1);
+    return tokens.previous();
   }
   private ParseError error(Token token, String message) {
-    Lox.error(token, message);
+    reporter.error(token, message);
     return new ParseError(message);
   }
   private void synchronize() {
-    advance();
+    tokens.advance();
 
     while (!isAtEnd()) {
-      if (previous().type == SEMICOLON) return;
+      if (tokens.previousType() == SEMICOLON) return;
 
-      switch (peek().type) {
+      switch (tokens.peekType()) {
         case CLASS:
         case FUN:
+        case IMPORT:
         case VAR:
         case FOR:
         case IF:
         case WHILE:
         case PRINT:
         case RETURN:
+        case YIELD:
           return;
       }
 
-      advance();
+      tokens.advance();
     }
   }
 }
@@ -377,6 +412,7 @@ Order of operations:
   statement
   -> varDecl
    | funcDecl
+   | importDecl
    | statement;
 
   statement 
@@ -387,7 +423,7 @@ Order of operations:
    | if
    | expression;
     
-  expression
+  expression (precedence climbing, loosest first; see INFIX_PRECEDENCE)
    -> assignment
    | logical
    | equality 
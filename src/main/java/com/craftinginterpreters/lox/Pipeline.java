@@ -0,0 +1,179 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+
+import static com.craftinginterpreters.lox.TokenType.EOF;
+
+/*
+Runs a script as three stages connected by bounded queues:
+
+  scanner thread --tokens--> parser thread --statements--> calling thread
+
+Each top-level statement is executed as soon as it is parsed, and dropped
+once it has run, so neither the whole token list nor the whole AST ever
+exists. Works on sources that are still being written, e.g. piped stdin.
+
+Syntax errors are passed down the token queue in source order, so the
+parser stops at the first statement that has one. Every statement before it
+runs, exactly as if the source had ended there; nothing after it does.
+*/
+class Pipeline {
+  private static final int TOKEN_QUEUE = 4096;
+  private static final int STATEMENT_QUEUE = 64;
+  // Marks the end of the statement queue.
+  private static final Statement END = new BlockStmt(new ArrayList<>(), null);
+
+  Pipeline(SourceText source, ErrorReporter reporter, boolean lazyBodies) {
+    this.source = source;
+    this.reporter = reporter;
+    this.lazyBodies = lazyBodies;
+  }
+
+  private final SourceText source;
+  private final ErrorReporter reporter;
+  private final boolean lazyBodies;
+  // Holds Tokens, plus the Reports or exceptions raised while scanning them.
+  private final BlockingQueue<Object> tokens = new ArrayBlockingQueue<>(TOKEN_QUEUE);
+  private final BlockingQueue<Statement> statements = new ArrayBlockingQueue<>(STATEMENT_QUEUE);
+  private volatile RuntimeException failure = null;
+
+  // Returns once the source is exhausted or a syntax error is found. Check
+  // `reporter.hadError` to tell which.
+  void run(Interpreter interpreter) {
+    Thread scanner = stage("lox-scanner", this::scan);
+    Thread parser = stage("lox-parser", this::parse);
+    scanner.start();
+    parser.start();
+
+    try {
+      for (Statement stmt = statements.take(); stmt != END; stmt = statements.take()) {
+        interpreter.interpret(stmt);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      scanner.interrupt();
+      parser.interrupt();
+    }
+
+    if (failure != null) throw failure;
+  }
+
+  private void scan() throws InterruptedException {
+    ErrorReporter.Buffered errors = new ErrorReporter.Buffered();
+    Scanner scanner = new Scanner(source, errors);
+    try {
+      Token token;
+      do {
+        token = scanner.nextToken();
+        // Errors come before the token scanned after them.
+        for (ErrorReporter.Report report : errors.reports) tokens.put(report);
+        errors.reports.clear();
+        tokens.put(token);
+      } while (token.type != EOF);
+    } catch (RuntimeException e) {
+      // e.g. an IOException reading the source. Ends the token stream.
+      tokens.put(e);
+    }
+  }
+
+  private void parse() throws InterruptedException {
+    try {
+      QueueTokenSource source = new QueueTokenSource();
+      Parser parser = new Parser(source, reporter, lazyBodies);
+      while (parser.hasNext()) {
+        Statement stmt = parser.parseNext();
+        if (reporter.hadError) return;
+        statements.put(stmt);
+      }
+      source.replayReports();
+    } catch (CancellationException | InterruptedException e) {
+      // Interrupted while waiting for tokens, or for room in the statement
+      // queue. Either way the interrupt was cleared; restore it.
+      Thread.currentThread().interrupt();
+    } catch (RuntimeException e) {
+      failure = e;
+    } finally {
+      // Once interrupted, the interpreter takes nothing more, so waiting for
+      // room in a full queue would block forever.
+      if (Thread.currentThread().isInterrupted()) {
+        statements.offer(END);
+      } else {
+        statements.put(END);
+      }
+    }
+  }
+
+  private static Thread stage(String name, Stage body) {
+    Thread thread = new Thread(() -> {
+      try {
+        body.run();
+      } catch (InterruptedException e) {
+        // The interpreter is done; nothing is waiting on this stage.
+      }
+    }, name);
+    // Never keep the process alive, e.g. while blocked reading stdin.
+    thread.setDaemon(true);
+    return thread;
+  }
+
+  private interface Stage {
+    void run() throws InterruptedException;
+  }
+
+  // Feeds the Parser from the scanner thread. Scanner errors are replayed on
+  // the shared reporter when the token after them is consumed, so they land
+  // in the statement they belong to rather than the one before it.
+  //
+  // Tokens are only taken when the Parser looks at them, so a statement is
+  // handed on as soon as its ';' arrives, not once the next token does.
+  private class QueueTokenSource implements TokenSource {
+    private Token current = null;
+    private Token previous = null;
+    // Reports that came before `current`.
+    private final List<ErrorReporter.Report> reports = new ArrayList<>();
+
+    @Override
+    public Token peek() {
+      if (current == null) current = take();
+      return current;
+    }
+
+    @Override
+    public Token previous() {
+      return previous;
+    }
+
+    @Override
+    public void advance() {
+      if (peek().type == EOF) return;
+      replayReports();
+      previous = current;
+      current = null;
+    }
+
+    void replayReports() {
+      for (ErrorReporter.Report report : reports) {
+        reporter.report(report.line, report.where, report.message);
+      }
+      reports.clear();
+    }
+
+    private Token take() {
+      try {
+        while (true) {
+          Object next = tokens.take();
+          if (next instanceof Token) return (Token) next;
+          if (next instanceof RuntimeException) throw (RuntimeException) next;
+          reports.add((ErrorReporter.Report) next);
+        }
+      } catch (InterruptedException e) {
+        throw new CancellationException();
+      }
+    }
+  }
+}
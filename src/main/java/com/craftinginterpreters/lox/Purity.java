@@ -0,0 +1,293 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+Decides whether a LoxFunction is pure: whether calling it again with the same
+arguments is bound to return the same value, and does nothing else. Only pure
+functions are memoized; see Memo.
+
+A function is pure if its body
+- assigns only to its own parameters and locals,
+- reads no variables but those, and the names of the functions it calls,
+- never reads or writes a property, or uses `this`,
+- doesn't print, import, or declare functions or classes,
+- only calls pure functions and the math natives other than random().
+
+Anything the analysis can't see through makes a function impure, e.g.
+calling one of its parameters, or reading a global, which could change
+between calls.
+
+Called functions are looked up in the closure as it is at the time of the
+analysis. The Variables holding them, and those the called functions depend
+on in turn, are the function's dependencies: if any of them is reassigned,
+the analysis no longer holds.
+*/
+class Purity implements Expr.Visitor<Object>, Statement.Visitor<Void> {
+  private static final Set<LoxCallable> PURE_NATIVES = new HashSet<>();
+  static {
+    for (Intrinsic intrinsic : Intrinsic.values()) {
+      if (intrinsic != Intrinsic.RANDOM) PURE_NATIVES.add(intrinsic.callable);
+    }
+  }
+
+  private Purity(LoxFunction function, Set<LoxFunction> analyzing) {
+    this.function = function;
+    this.analyzing = analyzing;
+  }
+
+  private final LoxFunction function;
+  // The functions being analyzed further up, which a call back into is
+  // assumed to be pure.
+  private final Set<LoxFunction> analyzing;
+  // The names declared by each enclosing block of the body, innermost first.
+  private final Deque<Set<Symbol>> locals = new ArrayDeque<>();
+  private final List<Variable> dependencies = new ArrayList<>();
+  private boolean pure = true;
+
+  // The dependencies of `function` if it is pure, otherwise null.
+  static List<Variable> analyze(LoxFunction function) {
+    return analyze(function, new HashSet<>());
+  }
+
+  private static List<Variable> analyze(LoxFunction function, Set<LoxFunction> analyzing) {
+    BlockStmt body;
+    try {
+      body = function.declaration.body();
+    } catch (ParseError e) {
+      // Calling it is an error, which there's no point caching.
+      return null;
+    }
+
+    analyzing.add(function);
+    Purity purity = new Purity(function, analyzing);
+    Set<Symbol> parameters = new HashSet<>();
+    for (Var parameter : function.parameters.members) {
+      parameters.add((Symbol) parameter.name.literal);
+    }
+    purity.locals.push(parameters);
+    // The body runs in the same scope as the parameters; see LoxFunction.
+    purity.statements(body.statements);
+    analyzing.remove(function);
+
+    return purity.pure ? purity.dependencies : null;
+  }
+
+  private boolean isLocal(Token name) {
+    for (Set<Symbol> block : locals) {
+      if (block.contains(name.literal)) return true;
+    }
+    return false;
+  }
+
+  private void statements(List<Statement> statements) {
+    for (Statement stmt : statements) {
+      if (!pure) return;
+      stmt.executeWith(this);
+    }
+  }
+
+  private void visit(Expr expr) {
+    if (pure && expr != null) expr.evaluateWith(this);
+  }
+
+  private void visit(Statement stmt) {
+    if (pure && stmt != null) stmt.executeWith(this);
+  }
+
+  private void impure() {
+    pure = false;
+  }
+
+  // Checks that the function `name` calls is pure, and depends on it.
+  private void callee(Token name) {
+    Variable variable = function.environment._find((Symbol) name.literal);
+    if (variable == null) {
+      // Calling it is an error.
+      impure();
+      return;
+    }
+
+    Object callee = variable.value;
+    if (PURE_NATIVES.contains(callee)) {
+      dependencies.add(variable);
+    } else if (callee instanceof LoxFunction) {
+      if (!analyzing.contains(callee)) {
+        List<Variable> calleeDependencies = analyze((LoxFunction) callee, analyzing);
+        if (calleeDependencies == null) {
+          impure();
+          return;
+        }
+        dependencies.addAll(calleeDependencies);
+      }
+      dependencies.add(variable);
+    } else {
+      impure();
+    }
+  }
+
+  @Override
+  public Object evalAssignExpr(Assign assign) {
+    if (!(assign.assignee instanceof Var) || !isLocal(((Var) assign.assignee).name)) {
+      impure();
+    }
+    visit(assign.value);
+    return null;
+  }
+
+  @Override
+  public Object evalBinaryExpr(Binary binary) {
+    visit(binary.left);
+    visit(binary.right);
+    return null;
+  }
+
+  @Override
+  public Object evalEmptyExpr(Empty empty) {
+    return null;
+  }
+
+  @Override
+  public Object evalCallExpr(Call call) {
+    if (call.callee instanceof Var && !isLocal(((Var) call.callee).name)) {
+      callee(((Var) call.callee).name);
+    } else {
+      impure();
+    }
+    for (Expr argument : call.arguments.members) {
+      visit(argument);
+    }
+    return null;
+  }
+
+  @Override
+  public Object evalGroupingExpr(Grouping grouping) {
+    visit(grouping.expr);
+    return null;
+  }
+
+  @Override
+  public Object evalLiteralExpr(Literal literal) {
+    return null;
+  }
+
+  @Override
+  public Object evalLogicalExpr(Logical logical) {
+    visit(logical.left);
+    visit(logical.right);
+    return null;
+  }
+
+  @Override
+  public Object evalPropertyExpr(Property get) {
+    impure();
+    return null;
+  }
+
+  @Override
+  public Object evalThisExpr(This expr) {
+    impure();
+    return null;
+  }
+
+  @Override
+  public Object evalUnaryExpr(Unary unary) {
+    visit(unary.expr);
+    return null;
+  }
+
+  @Override
+  public Object evalVarExpr(Var variable) {
+    if (!isLocal(variable.name)) impure();
+    return null;
+  }
+
+  @Override
+  public Void execBlockStmt(BlockStmt stmt) {
+    locals.push(new HashSet<>());
+    statements(stmt.statements);
+    locals.pop();
+    return null;
+  }
+
+  @Override
+  public Void execExprStmt(ExprStmt stmt) {
+    visit(stmt.expr);
+    return null;
+  }
+
+  @Override
+  public Void execClassStmt(ClassStmt stmt) {
+    impure();
+    return null;
+  }
+
+  @Override
+  public Void execForStmt(ForStmt stmt) {
+    locals.push(new HashSet<>());
+    visit(stmt.initializer);
+    visit(stmt.condition);
+    visit(stmt.iterator);
+    visit(stmt.body);
+    locals.pop();
+    return null;
+  }
+
+  @Override
+  public Void execFuncStmt(FuncStmt stmt) {
+    impure();
+    return null;
+  }
+
+  @Override
+  public Void execIfStmt(IfStmt stmt) {
+    visit(stmt.condition);
+    visit(stmt.then);
+    visit(stmt.otherwise);
+    return null;
+  }
+
+  @Override
+  public Void execImportStmt(ImportStmt stmt) {
+    impure();
+    return null;
+  }
+
+  @Override
+  public Void execPrintStmt(PrintStmt stmt) {
+    impure();
+    return null;
+  }
+
+  @Override
+  public Void execReturnStmt(ReturnStmt stmt) {
+    visit(stmt.expr);
+    return null;
+  }
+
+  @Override
+  public Void execYieldStmt(YieldStmt stmt) {
+    // Calls return a new generator every time.
+    impure();
+    return null;
+  }
+
+  @Override
+  public Void execVarStmt(VarStmt stmt) {
+    visit(stmt.expr);
+    locals.peek().add((Symbol) stmt.name.literal);
+    return null;
+  }
+
+  @Override
+  public Void execWhileStmt(WhileStmt stmt) {
+    visit(stmt.condition);
+    visit(stmt.body);
+    return null;
+  }
+}
@@ -1,52 +1,87 @@
 package com.craftinginterpreters.lox;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import static com.craftinginterpreters.lox.TokenType.*; // [static-import]
 
 class Scanner {
-  private static final Map<String, TokenType> keywords;
-
-  static {
-    keywords = new HashMap<>();
-    keywords.put("and",    AND);
-    keywords.put("class",  CLASS);
-    keywords.put("else",   ELSE);
-    keywords.put("false",  FALSE);
-    keywords.put("for",    FOR);
-    keywords.put("fun",    FUN);
-    keywords.put("if",     IF);
-    keywords.put("nil",    NIL);
-    keywords.put("or",     OR);
-    keywords.put("print",  PRINT);
-    keywords.put("return", RETURN);
-    keywords.put("super",  SUPER);
-    keywords.put("this",   THIS);
-    keywords.put("true",   TRUE);
-    keywords.put("var",    VAR);
-    keywords.put("while",  WHILE);
-  }
-  private final String source;
-  private final List<Token> tokens = new ArrayList<>();
+  private final SourceText source;
+  private final ErrorReporter reporter;
+  private Token pending = null;
+  private TokenBuffer buffer = null;
   private int start = 0;
   private int current = 0;
   private int line = 1;
 
-  Scanner(String source) {
+  Scanner(String source, ErrorReporter reporter) {
+    this(new StringSource(source), reporter);
+  }
+
+  Scanner(SourceText source, ErrorReporter reporter) {
     this.source = source;
+    this.reporter = reporter;
   }
   List<Token> scanTokens() {
+    List<Token> tokens = new ArrayList<>();
+    Token token;
+    do {
+      token = nextToken();
+      tokens.add(token);
+    } while (token.type != EOF);
+    return tokens;
+  }
+
+  // Scans the whole source into parallel arrays. Lexemes stay in the source
+  // until the Parser asks for a Token.
+  TokenBuffer scanTokenBuffer() {
+    // Roughly one token per five chars of typical Lox.
+    int expectedTokens = source instanceof StringSource
+      ? ((StringSource) source).source.length() / 5
+      : 0;
+    buffer = new TokenBuffer(source, expectedTokens);
     while (!isAtEnd()) {
       // We are at the beginning of the next lexeme.
       start = current;
       scanToken();
     }
+    buffer.add(EOF, current, 0, line);
+    return buffer;
+  }
 
-    tokens.add(new Token(EOF, "", null, line));
-    return tokens;
+  // Scans the tokens that start in [from, until) into `into`, counting lines
+  // from 1. Stops at the first token boundary at or after `until`, which is
+  // past `until` when a string literal straddles it. Returns that position.
+  int scanRange(int from, int until, TokenBuffer into) {
+    buffer = into;
+    current = from;
+    while (current < until && !isAtEnd()) {
+      start = current;
+      scanToken();
+    }
+    return current;
+  }
+
+  // Newlines consumed so far.
+  int linesScanned() {
+    return line - 1;
+  }
+
+  // Scans just far enough to produce one more token. Returns EOF forever once
+  // the source is exhausted.
+  Token nextToken() {
+    while (pending == null) {
+      if (isAtEnd()) return new Token(EOF, "", null, line);
+
+      // We are at the beginning of the next lexeme.
+      start = current;
+      source.release(start);
+      scanToken();
+    }
+
+    Token token = pending;
+    pending = null;
+    return token;
   }
   private void scanToken() {
     char c = advance();
@@ -100,7 +135,7 @@ class Scanner {
         } else if (isAlpha(c)) {
           identifier();
         } else {
-          Lox.error(line, "Unexpected character.");
+          reporter.error(line, "Unexpected character.");
         }
         break;
     }
@@ -108,17 +143,56 @@ class Scanner {
   private void identifier() {
     while (isAlphaNumeric(peek())) advance();
 
-    String text = source.substring(start, current);
-    TokenType type = keywords.get(text);
-    Object value = null;
-    if (type == null) {
-      value = text;
-      type = IDENTIFIER;
+    addToken(identifierType());
+  }
+  // Recognizes keywords by walking their letters in place, so no substring
+  // is made for identifiers or keywords.
+  private TokenType identifierType() {
+    switch (source.charAt(start)) {
+      case 'a': return keyword(1, "nd", AND);
+      case 'c': return keyword(1, "lass", CLASS);
+      case 'e': return keyword(1, "lse", ELSE);
+      case 'f':
+        if (current - start > 1) {
+          switch (source.charAt(start + 1)) {
+            case 'a': return keyword(2, "lse", FALSE);
+            case 'o': return keyword(2, "r", FOR);
+            case 'u': return keyword(2, "n", FUN);
+          }
+        }
+        break;
+      case 'i':
+        if (current - start > 1) {
+          switch (source.charAt(start + 1)) {
+            case 'f': return keyword(2, "", IF);
+            case 'm': return keyword(2, "port", IMPORT);
+          }
+        }
+        break;
+      case 'n': return keyword(1, "il", NIL);
+      case 'o': return keyword(1, "r", OR);
+      case 'p': return keyword(1, "rint", PRINT);
+      case 'r': return keyword(1, "eturn", RETURN);
+      case 's': return keyword(1, "uper", SUPER);
+      case 't':
+        if (current - start > 1) {
+          switch (source.charAt(start + 1)) {
+            case 'h': return keyword(2, "is", THIS);
+            case 'r': return keyword(2, "ue", TRUE);
+          }
+        }
+        break;
+      case 'v': return keyword(1, "ar", VAR);
+      case 'w': return keyword(1, "hile", WHILE);
+      case 'y': return keyword(1, "ield", YIELD);
     }
-    if (type == TRUE) value = new Boolean(true);
-    if (type == FALSE) value = new Boolean(false);
-
-    addToken(type, value);
+    return IDENTIFIER;
+  }
+  private TokenType keyword(int offset, String rest, TokenType type) {
+    if (current - start == offset + rest.length() && source.matches(start + offset, rest)) {
+      return type;
+    }
+    return IDENTIFIER;
   }
   private void number() {
     while (isDigit(peek())) advance();
@@ -131,8 +205,7 @@ class Scanner {
       while (isDigit(peek())) advance();
     }
 
-    addToken(NUMBER,
-        Double.parseDouble(source.substring(start, current)));
+    addToken(NUMBER);
   }
   private void string() {
     while (peek() != '"' && !isAtEnd()) {
@@ -141,16 +214,14 @@ class Scanner {
     }
 
     if (isAtEnd()) {
-      Lox.error(line, "Unterminated string.");
+      reporter.error(line, "Unterminated string.");
       return;
     }
 
     // The closing ".
     advance();
 
-    // Trim the surrounding quotes.
-    String value = source.substring(start + 1, current - 1);
-    addToken(STRING, value);
+    addToken(STRING);
   }
   private boolean match(char expected) {
     if (isAtEnd()) return false;
@@ -164,7 +235,7 @@ class Scanner {
     return source.charAt(current);
   }
   private char peekNext() {
-    if (current + 1 >= source.length()) return '\0';
+    if (!source.hasCharAt(current + 1)) return '\0';
     return source.charAt(current + 1);
   } // [peek-next]
   private boolean isAlpha(char c) {
@@ -180,18 +251,39 @@ class Scanner {
     return c >= '0' && c <= '9';
   } // [is-digit]
   private boolean isAtEnd() {
-    return current >= source.length();
+    return !source.hasCharAt(current);
   }
   private char advance() {
     return source.charAt(current++);
   }
 
   private void addToken(TokenType type) {
-    addToken(type, null);
+    if (buffer != null) {
+      buffer.add(type, start, current - start, line);
+      return;
+    }
+    pending = token(type, source.substring(start, current), line);
   }
 
-  private void addToken(TokenType type, Object literal) {
-    String text = source.substring(start, current);
-    tokens.add(new Token(type, text, literal, line));
+  static Token token(TokenType type, String lexeme, int line) {
+    if (type == IDENTIFIER) {
+      // Share the interned name rather than keep another copy of it.
+      Symbol symbol = Symbol.intern(lexeme);
+      return new Token(type, symbol.name, symbol, line);
+    }
+    return new Token(type, lexeme, literal(type, lexeme), line);
+  }
+
+  // The value a token carries, which is a function of its type and lexeme.
+  static Object literal(TokenType type, String lexeme) {
+    switch (type) {
+      case IDENTIFIER: return Symbol.intern(lexeme);
+      case NUMBER: return Double.parseDouble(lexeme);
+      // Trim the surrounding quotes.
+      case STRING: return lexeme.substring(1, lexeme.length() - 1);
+      case TRUE: return Boolean.TRUE;
+      case FALSE: return Boolean.FALSE;
+      default: return null;
+    }
   }
 }
@@ -0,0 +1,697 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+Parsed programs cached on disk, keyed by the SHA-256 of the source bytes.
+
+With a cache directory, entries are stored as `<dir>/<hash>.loxc`. Without
+one, the entry sits next to the source as `<script>.loxc` and the hash in its
+header decides whether it is still fresh. Anything unreadable, stale or from
+another format version is ignored, and the caller falls back to parsing.
+
+File layout (all counts and indices are unsigned varints):
+
+  "LOXC" u16:version byte[32]:sha256
+  string pool    count, utf8*
+  constant pool  count, (tag, payload)*     index 0 is always null
+  token table    count, (type, lexeme string, literal constant)*
+  line table     one signed varint per token: line - previous line
+  statements     count, node*               node = tag byte, then children
+*/
+class ScriptCache {
+  static final int FORMAT_VERSION = 4;
+  private static final byte[] MAGIC = { 'L', 'O', 'X', 'C' };
+
+  ScriptCache(Path cacheDir) {
+    this.cacheDir = cacheDir;
+  }
+
+  // Null means "store next to the source".
+  private final Path cacheDir;
+
+  List<Statement> load(Path source, byte[] sourceBytes) {
+    byte[] hash = hash(sourceBytes);
+    Path entry = entryFor(source, hash);
+    if (!Files.isRegularFile(entry)) return null;
+
+    try {
+      return new AstReader(Files.readAllBytes(entry)).read(hash);
+    } catch (IOException | RuntimeException e) {
+      // Corrupt or written by another version: parse the source instead.
+      return null;
+    }
+  }
+
+  void store(Path source, byte[] sourceBytes, List<Statement> statements) {
+    byte[] hash = hash(sourceBytes);
+    Path entry = entryFor(source, hash);
+    try {
+      // Parses any lazy function bodies.
+      byte[] bytes = new AstWriter().write(hash, statements);
+      if (entry.getParent() != null) Files.createDirectories(entry.getParent());
+      // Write then rename, so a concurrent reader never sees a partial file.
+      Path temp = Files.createTempFile(entry.getParent(), "lox", ".tmp");
+      try {
+        Files.write(temp, bytes);
+        Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        // Already gone if the move succeeded.
+        Files.deleteIfExists(temp);
+      }
+    } catch (IOException | UnsupportedOperationException e) {
+      // The cache is an optimization only; a read-only directory is not an error.
+    } catch (ParseError e) {
+      // A lazy function body doesn't parse. Leave it to be reported if the
+      // function is ever called.
+    }
+  }
+
+  private Path entryFor(Path source, byte[] hash) {
+    if (cacheDir != null) {
+      return cacheDir.resolve(hex(hash) + ".loxc");
+    }
+    Path absolute = source.toAbsolutePath();
+    return absolute.resolveSibling(absolute.getFileName() + "c");
+  }
+
+  static byte[] hash(byte[] bytes) {
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(bytes);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String hex(byte[] bytes) {
+    StringBuilder builder = new StringBuilder();
+    for (byte b : bytes) {
+      builder.append(String.format("%02x", b));
+    }
+    return builder.toString();
+  }
+
+  // Node tags.
+  static final byte STMT_EXPR = 1, STMT_PRINT = 2, STMT_VAR = 3, STMT_BLOCK = 4,
+    STMT_WHILE = 5, STMT_FOR = 6, STMT_IF = 7, STMT_CLASS = 8, STMT_FUNC = 9,
+    STMT_RETURN = 10, STMT_IMPORT = 11, STMT_YIELD = 12;
+  static final byte EXPR_EMPTY = 32, EXPR_BINARY = 33, EXPR_LOGICAL = 34,
+    EXPR_UNARY = 35, EXPR_GROUPING = 36, EXPR_LITERAL = 37, EXPR_VAR = 38,
+    EXPR_ASSIGN = 39, EXPR_CALL = 40, EXPR_THIS = 41, EXPR_PROPERTY = 42;
+
+  // Constant tags.
+  static final byte CONST_NUMBER = 1, CONST_STRING = 2, CONST_TRUE = 3, CONST_FALSE = 4,
+    CONST_SYMBOL = 5;
+
+  static void writeVarInt(DataOutputStream out, int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      out.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  static int readVarInt(DataInputStream in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) return value;
+    }
+    throw new IOException("Malformed varint.");
+  }
+
+  static void writeSignedVarInt(DataOutputStream out, int value) throws IOException {
+    writeVarInt(out, (value << 1) ^ (value >> 31));
+  }
+
+  static int readSignedVarInt(DataInputStream in) throws IOException {
+    int raw = readVarInt(in);
+    return (raw >>> 1) ^ -(raw & 1);
+  }
+
+  static void checkHeader(DataInputStream in, byte[] expectedHash) throws IOException {
+    byte[] magic = new byte[MAGIC.length];
+    in.readFully(magic);
+    if (!Arrays.equals(magic, MAGIC)) throw new IOException("Not a compiled Lox script.");
+    if (in.readUnsignedShort() != FORMAT_VERSION) throw new IOException("Unsupported version.");
+    byte[] hash = new byte[32];
+    in.readFully(hash);
+    if (!Arrays.equals(hash, expectedHash)) throw new IOException("Source has changed.");
+  }
+
+  static void writeHeader(DataOutputStream out, byte[] hash) throws IOException {
+    out.write(MAGIC);
+    out.writeShort(FORMAT_VERSION);
+    out.write(hash);
+  }
+}
+
+class AstWriter implements Expr.Visitor<Object>, Statement.Visitor<Void> {
+  private final ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream();
+  private final DataOutputStream body = new DataOutputStream(bodyBytes);
+
+  private final List<String> strings = new ArrayList<>();
+  private final Map<String, Integer> stringIndex = new HashMap<>();
+  private final List<Object> constants = new ArrayList<>(Arrays.asList((Object) null));
+  private final Map<Object, Integer> constantIndex = new HashMap<>();
+  // Identity, because the AST shares Token objects between nodes.
+  private final List<Token> tokens = new ArrayList<>();
+  private final Map<Token, Integer> tokenIndex = new IdentityHashMap<>();
+
+  byte[] write(byte[] hash, List<Statement> statements) throws IOException {
+    try {
+      varInt(statements.size());
+      for (Statement stmt : statements) {
+        stmt.executeWith(this);
+      }
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    ScriptCache.writeHeader(out, hash);
+
+    // Interning the constants and tokens can add strings, so write those first
+    // into a scratch buffer and emit the string pool ahead of them.
+    ByteArrayOutputStream tableBytes = new ByteArrayOutputStream();
+    DataOutputStream tables = new DataOutputStream(tableBytes);
+    ScriptCache.writeVarInt(tables, constants.size() - 1);
+    for (Object constant : constants.subList(1, constants.size())) {
+      if (constant instanceof Double) {
+        tables.writeByte(ScriptCache.CONST_NUMBER);
+        tables.writeDouble((Double) constant);
+      } else if (constant instanceof String) {
+        tables.writeByte(ScriptCache.CONST_STRING);
+        ScriptCache.writeVarInt(tables, string((String) constant));
+      } else if (constant instanceof Symbol) {
+        tables.writeByte(ScriptCache.CONST_SYMBOL);
+        ScriptCache.writeVarInt(tables, string(((Symbol) constant).name));
+      } else if (Boolean.TRUE.equals(constant)) {
+        tables.writeByte(ScriptCache.CONST_TRUE);
+      } else if (Boolean.FALSE.equals(constant)) {
+        tables.writeByte(ScriptCache.CONST_FALSE);
+      } else {
+        throw new IOException("Cannot serialize constant " + constant);
+      }
+    }
+    ScriptCache.writeVarInt(tables, tokens.size());
+    for (Token token : tokens) {
+      tables.writeByte(token.type.ordinal());
+      ScriptCache.writeVarInt(tables, string(token.lexeme));
+      ScriptCache.writeVarInt(tables, constant(token.literal));
+    }
+    int line = 0;
+    for (Token token : tokens) {
+      ScriptCache.writeSignedVarInt(tables, token.line - line);
+      line = token.line;
+    }
+
+    ScriptCache.writeVarInt(out, strings.size());
+    for (String string : strings) {
+      out.writeUTF(string);
+    }
+    tableBytes.writeTo(out);
+    bodyBytes.writeTo(out);
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  private int string(String value) {
+    return stringIndex.computeIfAbsent(value, key -> {
+      strings.add(key);
+      return strings.size() - 1;
+    });
+  }
+
+  private int constant(Object value) {
+    if (value == null) return 0;
+    Integer index = constantIndex.get(value);
+    if (index == null) {
+      // Register strings up front so the pool is complete before it is written.
+      if (value instanceof String) string((String) value);
+      if (value instanceof Symbol) string(((Symbol) value).name);
+      constants.add(value);
+      index = constants.size() - 1;
+      constantIndex.put(value, index);
+    }
+    return index;
+  }
+
+  private void varInt(int value) {
+    try {
+      ScriptCache.writeVarInt(body, value);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void tag(byte tag) {
+    varInt(tag);
+  }
+
+  private void token(Token token) {
+    Integer index = tokenIndex.get(token);
+    if (index == null) {
+      string(token.lexeme);
+      constant(token.literal);
+      tokens.add(token);
+      index = tokens.size() - 1;
+      tokenIndex.put(token, index);
+    }
+    varInt(index);
+  }
+
+  private void expr(Expr expr) {
+    expr.evaluateWith(this);
+  }
+
+  private void stmt(Statement stmt) {
+    stmt.executeWith(this);
+  }
+
+  private void series(Series<? extends Expr> series) {
+    varInt(series.size());
+    for (Expr member : series.members) {
+      expr(member);
+    }
+  }
+
+  @Override
+  public Object evalAssignExpr(Assign assign) {
+    tag(ScriptCache.EXPR_ASSIGN);
+    token(assign.token);
+    expr(assign.assignee);
+    expr(assign.value);
+    return null;
+  }
+
+  @Override
+  public Object evalBinaryExpr(Binary binary) {
+    tag(ScriptCache.EXPR_BINARY);
+    token(binary.operator);
+    expr(binary.left);
+    expr(binary.right);
+    return null;
+  }
+
+  @Override
+  public Object evalEmptyExpr(Empty empty) {
+    tag(ScriptCache.EXPR_EMPTY);
+    return null;
+  }
+
+  @Override
+  public Object evalCallExpr(Call call) {
+    tag(ScriptCache.EXPR_CALL);
+    token(call.token);
+    expr(call.callee);
+    series(call.arguments);
+    return null;
+  }
+
+  @Override
+  public Object evalGroupingExpr(Grouping grouping) {
+    tag(ScriptCache.EXPR_GROUPING);
+    expr(grouping.expr);
+    return null;
+  }
+
+  @Override
+  public Object evalLiteralExpr(Literal literal) {
+    tag(ScriptCache.EXPR_LITERAL);
+    varInt(constant(literal.value));
+    return null;
+  }
+
+  @Override
+  public Object evalLogicalExpr(Logical logical) {
+    tag(ScriptCache.EXPR_LOGICAL);
+    token(logical.operator);
+    expr(logical.left);
+    expr(logical.right);
+    return null;
+  }
+
+  @Override
+  public Object evalPropertyExpr(Property property) {
+    tag(ScriptCache.EXPR_PROPERTY);
+    expr(property.left);
+    token(property.right);
+    return null;
+  }
+
+  @Override
+  public Object evalThisExpr(This expr) {
+    tag(ScriptCache.EXPR_THIS);
+    token(expr.token);
+    return null;
+  }
+
+  @Override
+  public Object evalUnaryExpr(Unary unary) {
+    tag(ScriptCache.EXPR_UNARY);
+    token(unary.operator);
+    expr(unary.expr);
+    return null;
+  }
+
+  @Override
+  public Object evalVarExpr(Var variable) {
+    tag(ScriptCache.EXPR_VAR);
+    token(variable.name);
+    return null;
+  }
+
+  @Override
+  public Void execBlockStmt(BlockStmt stmt) {
+    tag(ScriptCache.STMT_BLOCK);
+    token(stmt.indicator);
+    varInt(stmt.statements.size());
+    for (Statement substmt : stmt.statements) {
+      stmt(substmt);
+    }
+    return null;
+  }
+
+  @Override
+  public Void execExprStmt(ExprStmt stmt) {
+    tag(ScriptCache.STMT_EXPR);
+    token(stmt.indicator);
+    expr(stmt.expr);
+    return null;
+  }
+
+  @Override
+  public Void execClassStmt(ClassStmt stmt) {
+    tag(ScriptCache.STMT_CLASS);
+    token(stmt.indicator);
+    token(stmt.name);
+    varInt(stmt.properties.size());
+    for (VarStmt property : stmt.properties) {
+      stmt(property);
+    }
+    varInt(stmt.methods.size());
+    for (FuncStmt method : stmt.methods) {
+      stmt(method);
+    }
+    return null;
+  }
+
+  @Override
+  public Void execForStmt(ForStmt stmt) {
+    tag(ScriptCache.STMT_FOR);
+    token(stmt.indicator);
+    stmt(stmt.initializer);
+    expr(stmt.condition);
+    stmt(stmt.iterator);
+    stmt(stmt.body);
+    return null;
+  }
+
+  @Override
+  public Void execFuncStmt(FuncStmt stmt) {
+    tag(ScriptCache.STMT_FUNC);
+    token(stmt.indicator);
+    token(stmt.name);
+    series(stmt.parameters);
+    stmt(stmt.body());
+    return null;
+  }
+
+  @Override
+  public Void execIfStmt(IfStmt stmt) {
+    tag(ScriptCache.STMT_IF);
+    token(stmt.indicator);
+    expr(stmt.condition);
+    stmt(stmt.then);
+    stmt(stmt.otherwise);
+    return null;
+  }
+
+  @Override
+  public Void execImportStmt(ImportStmt stmt) {
+    tag(ScriptCache.STMT_IMPORT);
+    token(stmt.indicator);
+    token(stmt.path);
+    return null;
+  }
+
+  @Override
+  public Void execPrintStmt(PrintStmt stmt) {
+    tag(ScriptCache.STMT_PRINT);
+    token(stmt.indicator);
+    expr(stmt.expr);
+    return null;
+  }
+
+  @Override
+  public Void execReturnStmt(ReturnStmt stmt) {
+    tag(ScriptCache.STMT_RETURN);
+    token(stmt.indicator);
+    expr(stmt.expr);
+    return null;
+  }
+
+  @Override
+  public Void execYieldStmt(YieldStmt stmt) {
+    tag(ScriptCache.STMT_YIELD);
+    token(stmt.indicator);
+    expr(stmt.expr);
+    return null;
+  }
+
+  @Override
+  public Void execVarStmt(VarStmt stmt) {
+    tag(ScriptCache.STMT_VAR);
+    token(stmt.indicator);
+    token(stmt.name);
+    expr(stmt.expr);
+    return null;
+  }
+
+  @Override
+  public Void execWhileStmt(WhileStmt stmt) {
+    tag(ScriptCache.STMT_WHILE);
+    token(stmt.indicator);
+    expr(stmt.condition);
+    stmt(stmt.body);
+    return null;
+  }
+}
+
+class AstReader {
+  AstReader(byte[] bytes) {
+    this.in = new DataInputStream(new ByteArrayInputStream(bytes));
+  }
+
+  private final DataInputStream in;
+  private String[] strings;
+  private Object[] constants;
+  private Token[] tokens;
+
+  List<Statement> read(byte[] expectedHash) throws IOException {
+    ScriptCache.checkHeader(in, expectedHash);
+
+    strings = new String[ScriptCache.readVarInt(in)];
+    for (int i = 0; i < strings.length; i++) {
+      strings[i] = in.readUTF();
+    }
+
+    constants = new Object[ScriptCache.readVarInt(in) + 1];
+    for (int i = 1; i < constants.length; i++) {
+      byte tag = in.readByte();
+      switch (tag) {
+        case ScriptCache.CONST_NUMBER: constants[i] = in.readDouble(); break;
+        case ScriptCache.CONST_STRING: constants[i] = strings[varInt()]; break;
+        case ScriptCache.CONST_SYMBOL: constants[i] = Symbol.intern(strings[varInt()]); break;
+        case ScriptCache.CONST_TRUE: constants[i] = true; break;
+        case ScriptCache.CONST_FALSE: constants[i] = false; break;
+        default: throw new IOException("Unknown constant tag " + tag);
+      }
+    }
+
+    TokenType[] types = TokenType.values();
+    tokens = new Token[varInt()];
+    int[] typeIndices = new int[tokens.length];
+    int[] lexemes = new int[tokens.length];
+    int[] literals = new int[tokens.length];
+    for (int i = 0; i < tokens.length; i++) {
+      typeIndices[i] = in.readUnsignedByte();
+      lexemes[i] = varInt();
+      literals[i] = varInt();
+    }
+    int line = 0;
+    for (int i = 0; i < tokens.length; i++) {
+      line += ScriptCache.readSignedVarInt(in);
+      Object literal = constants[literals[i]];
+      // An identifier's lexeme is its Symbol's name; share it, as the Scanner does.
+      String lexeme = literal instanceof Symbol ? ((Symbol) literal).name : strings[lexemes[i]];
+      tokens[i] = new Token(types[typeIndices[i]], lexeme, literal, line);
+    }
+
+    int count = varInt();
+    List<Statement> statements = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      statements.add(statement());
+    }
+    return statements;
+  }
+
+  private int varInt() throws IOException {
+    return ScriptCache.readVarInt(in);
+  }
+
+  private Token token() throws IOException {
+    return tokens[varInt()];
+  }
+
+  private Series<Var> parameters() throws IOException {
+    int count = varInt();
+    List<Var> members = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      members.add((Var) expr());
+    }
+    return new Series<Var>(members);
+  }
+
+  private Series<Expr> arguments() throws IOException {
+    int count = varInt();
+    List<Expr> members = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      members.add(expr());
+    }
+    return new Series<Expr>(members);
+  }
+
+  private Expr expr() throws IOException {
+    int tag = varInt();
+    switch (tag) {
+      case ScriptCache.EXPR_EMPTY:
+        return new Empty();
+      case ScriptCache.EXPR_BINARY: {
+        Token operator = token();
+        Expr left = expr();
+        return new Binary(left, operator, expr());
+      }
+      case ScriptCache.EXPR_LOGICAL: {
+        Token operator = token();
+        Expr left = expr();
+        return new Logical(left, operator, expr());
+      }
+      case ScriptCache.EXPR_UNARY: {
+        Token operator = token();
+        return new Unary(operator, expr());
+      }
+      case ScriptCache.EXPR_GROUPING:
+        return new Grouping(expr());
+      case ScriptCache.EXPR_LITERAL:
+        return new Literal(constants[varInt()]);
+      case ScriptCache.EXPR_VAR:
+        return new Var(token());
+      case ScriptCache.EXPR_ASSIGN: {
+        Token token = token();
+        Expr assignee = expr();
+        return new Assign(assignee, token, expr());
+      }
+      case ScriptCache.EXPR_CALL: {
+        Token token = token();
+        Expr callee = expr();
+        return new Call(token, callee, arguments());
+      }
+      case ScriptCache.EXPR_THIS:
+        return new This(token());
+      case ScriptCache.EXPR_PROPERTY: {
+        Expr left = expr();
+        return new Property(left, token());
+      }
+      default:
+        throw new IOException("Unknown expression tag " + tag);
+    }
+  }
+
+  private Statement statement() throws IOException {
+    int tag = varInt();
+    Token indicator = token();
+    switch (tag) {
+      case ScriptCache.STMT_EXPR:
+        return new ExprStmt(expr(), indicator);
+      case ScriptCache.STMT_PRINT:
+        return new PrintStmt(expr(), indicator);
+      case ScriptCache.STMT_VAR: {
+        Token name = token();
+        return new VarStmt(name, expr(), indicator);
+      }
+      case ScriptCache.STMT_BLOCK:
+        return block(indicator);
+      case ScriptCache.STMT_WHILE: {
+        Expr condition = expr();
+        return new WhileStmt(condition, statement(), indicator);
+      }
+      case ScriptCache.STMT_FOR: {
+        Statement initializer = statement();
+        Expr condition = expr();
+        Statement iterator = statement();
+        return new ForStmt(initializer, condition, iterator, statement(), indicator);
+      }
+      case ScriptCache.STMT_IF: {
+        Expr condition = expr();
+        Statement then = statement();
+        return new IfStmt(condition, then, statement(), indicator);
+      }
+      case ScriptCache.STMT_CLASS: {
+        Token name = token();
+        int propertyCount = varInt();
+        List<VarStmt> properties = new ArrayList<>(propertyCount);
+        for (int i = 0; i < propertyCount; i++) {
+          properties.add((VarStmt) statement());
+        }
+        int methodCount = varInt();
+        List<FuncStmt> methods = new ArrayList<>(methodCount);
+        for (int i = 0; i < methodCount; i++) {
+          methods.add((FuncStmt) statement());
+        }
+        return new ClassStmt(name, properties, methods, indicator);
+      }
+      case ScriptCache.STMT_FUNC: {
+        Token name = token();
+        Series<Var> parameters = parameters();
+        return new FuncStmt(name, parameters, (BlockStmt) statement(), indicator);
+      }
+      case ScriptCache.STMT_IMPORT:
+        return new ImportStmt(token(), indicator);
+      case ScriptCache.STMT_RETURN:
+        return new ReturnStmt(expr(), indicator);
+      case ScriptCache.STMT_YIELD:
+        return new YieldStmt(expr(), indicator);
+      default:
+        throw new IOException("Unknown statement tag " + tag);
+    }
+  }
+
+  private BlockStmt block(Token indicator) throws IOException {
+    int count = varInt();
+    List<Statement> statements = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      statements.add(statement());
+    }
+    return new BlockStmt(statements, indicator);
+  }
+}
@@ -0,0 +1,243 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// The characters the Scanner reads. Indices are absolute positions in the
+// whole source, even for implementations that only keep part of it in memory.
+interface SourceText {
+  boolean hasCharAt(int index);
+  char charAt(int index);
+  String substring(int start, int end);
+
+  // Whether the chars starting at `start` spell `text`. Does not allocate.
+  default boolean matches(int start, String text) {
+    for (int i = 0; i < text.length(); i++) {
+      if (!hasCharAt(start + i) || charAt(start + i) != text.charAt(i)) return false;
+    }
+    return true;
+  }
+
+  // The Scanner will never look at anything before `index` again.
+  default void release(int index) {}
+}
+
+class StringSource implements SourceText {
+  StringSource(String source) {
+    this.source = source;
+  }
+
+  final String source;
+
+  @Override
+  public boolean hasCharAt(int index) {
+    return index < source.length();
+  }
+
+  @Override
+  public char charAt(int index) {
+    return source.charAt(index);
+  }
+
+  @Override
+  public String substring(int start, int end) {
+    return source.substring(start, end);
+  }
+
+  @Override
+  public boolean matches(int start, String text) {
+    return source.startsWith(text, start);
+  }
+}
+
+/*
+A file read through memory-mapped segments and decoded a chunk at a time.
+
+Only the characters from the start of the token being scanned up to the
+decode position are held on the heap, so memory stays bounded by the chunk
+size (plus the longest single token) no matter how large the file is.
+*/
+class MappedSource implements SourceText, AutoCloseable {
+  // Bytes decoded per refill.
+  private static final int CHUNK_BYTES = 1 << 20;
+  // Mapped at a time. Must stay below 2GB, the limit of a single mapping.
+  private static final long SEGMENT_BYTES = 256L << 20;
+
+  MappedSource(Path path, Charset charset) throws IOException {
+    this.channel = FileChannel.open(path, StandardOpenOption.READ);
+    this.fileSize = channel.size();
+    this.decoder = charset.newDecoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    this.window = new char[(int) Math.ceil(CHUNK_BYTES * (double) decoder.maxCharsPerByte())];
+    mapSegment(0);
+  }
+
+  private final FileChannel channel;
+  private final long fileSize;
+  private final CharsetDecoder decoder;
+
+  private ByteBuffer segment;
+  private long segmentStart;
+
+  private char[] window;
+  private int windowStart = 0; // Absolute index of window[0].
+  private int windowLength = 0;
+  private int keepFrom = 0; // Absolute index of the oldest char still needed.
+  private boolean decodedAll = false;
+
+  @Override
+  public boolean hasCharAt(int index) {
+    ensure(index);
+    return index < windowStart + windowLength;
+  }
+
+  @Override
+  public char charAt(int index) {
+    ensure(index);
+    return window[index - windowStart];
+  }
+
+  @Override
+  public String substring(int start, int end) {
+    ensure(end - 1);
+    return new String(window, start - windowStart, end - start);
+  }
+
+  @Override
+  public void release(int index) {
+    keepFrom = index;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  private void ensure(int index) {
+    while (index >= windowStart + windowLength && !decodedAll) {
+      fill();
+    }
+  }
+
+  private void fill() {
+    // Drop released chars, then make room for at least one more chunk.
+    int keep = windowStart + windowLength - keepFrom;
+    System.arraycopy(window, keepFrom - windowStart, window, 0, keep);
+    windowStart = keepFrom;
+    windowLength = keep;
+    int chunkChars = (int) Math.ceil(CHUNK_BYTES * (double) decoder.maxCharsPerByte());
+    if (window.length - windowLength < chunkChars) {
+      char[] grown = new char[windowLength + chunkChars];
+      System.arraycopy(window, 0, grown, 0, windowLength);
+      window = grown;
+    }
+
+    boolean lastSegment = segmentStart + segment.capacity() >= fileSize;
+    segment.limit(Math.min(segment.position() + CHUNK_BYTES, segment.capacity()));
+    boolean endOfInput = lastSegment && segment.limit() == segment.capacity();
+
+    CharBuffer out = CharBuffer.wrap(window, windowLength, window.length - windowLength);
+    decoder.decode(segment, out, endOfInput);
+    if (endOfInput) {
+      decoder.flush(out);
+      decodedAll = true;
+    }
+    windowLength = out.position();
+
+    // Remap from the first undecoded byte once the segment is used up, so a
+    // multi-byte char split across segments is decoded whole.
+    if (!lastSegment && segment.capacity() - segment.position() < CHUNK_BYTES) {
+      mapSegment(segmentStart + segment.position());
+    }
+  }
+
+  private void mapSegment(long start) {
+    try {
+      long size = Math.min(SEGMENT_BYTES, fileSize - start);
+      segment = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+      segmentStart = start;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
+
+// Reads from a Reader, e.g. piped stdin, only as far as the Scanner has
+// looked. Like MappedSource, holds just the chars from the token being
+// scanned onwards.
+class ReaderSource implements SourceText {
+  private static final int CHUNK_CHARS = 1 << 13;
+
+  ReaderSource(Reader reader) {
+    this.reader = reader;
+  }
+
+  private final Reader reader;
+  private char[] window = new char[CHUNK_CHARS];
+  private int windowStart = 0; // Absolute index of window[0].
+  private int windowLength = 0;
+  private int keepFrom = 0; // Absolute index of the oldest char still needed.
+  private boolean readAll = false;
+
+  @Override
+  public boolean hasCharAt(int index) {
+    ensure(index);
+    return index < windowStart + windowLength;
+  }
+
+  @Override
+  public char charAt(int index) {
+    ensure(index);
+    return window[index - windowStart];
+  }
+
+  @Override
+  public String substring(int start, int end) {
+    ensure(end - 1);
+    return new String(window, start - windowStart, end - start);
+  }
+
+  @Override
+  public void release(int index) {
+    keepFrom = index;
+  }
+
+  private void ensure(int index) {
+    while (index >= windowStart + windowLength && !readAll) {
+      fill();
+    }
+  }
+
+  // Blocks until at least one more char is available, or the input ends.
+  private void fill() {
+    int keep = windowStart + windowLength - keepFrom;
+    System.arraycopy(window, keepFrom - windowStart, window, 0, keep);
+    windowStart = keepFrom;
+    windowLength = keep;
+    if (window.length - windowLength < CHUNK_CHARS) {
+      window = Arrays.copyOf(window, windowLength + CHUNK_CHARS);
+    }
+
+    try {
+      int read = reader.read(window, windowLength, window.length - windowLength);
+      if (read < 0) {
+        readAll = true;
+      } else {
+        windowLength += read;
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -1,11 +1,12 @@
 package com.craftinginterpreters.lox;
 
-import java.util.Arrays;
-import java.util.List;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-abstract class Statement extends Printable {
+abstract class Statement {
   // Token used for stack traces and line numbers. There ought to be a more 
   // methodical way to choose which token to associate with. 
   Token indicator;
@@ -19,10 +20,12 @@ abstract class Statement extends Printable {
     public T execForStmt(ForStmt stmt);
     public T execFuncStmt(FuncStmt stmt);
     public T execIfStmt(IfStmt stmt);
+    public T execImportStmt(ImportStmt stmt);
     public T execPrintStmt(PrintStmt stmt);
     public T execReturnStmt(ReturnStmt stmt);
     public T execVarStmt(VarStmt stmt);
     public T execWhileStmt(WhileStmt stmt);
+    public T execYieldStmt(YieldStmt stmt);
   }
 }
 
@@ -30,7 +33,6 @@ class ExprStmt extends Statement {
   ExprStmt(Expr expr, Token indicator) {
     this.expr = expr;
     this.indicator = indicator;
-    this._printables = Arrays.asList(expr);
   }
 
   final Expr expr;
@@ -44,7 +46,6 @@ class PrintStmt extends Statement {
   PrintStmt(Expr expr, Token indicator) {
     this.expr = expr;
     this.indicator = indicator;
-    this._printables = Arrays.asList(expr);
   }
 
   final Expr expr;
@@ -59,7 +60,6 @@ class VarStmt extends Statement {
     this.name = name;
     this.expr = expr;
     this.indicator = indicator;
-    this._printables = Arrays.asList(name, expr);
   }
 
   final Token name;
@@ -74,7 +74,6 @@ class BlockStmt extends Statement {
   BlockStmt(List<Statement> statements, Token indicator) {
     this.statements = statements;
     this.indicator = indicator;
-    this._printables.addAll(statements);
   }
 
   final List<Statement> statements;
@@ -89,7 +88,6 @@ class WhileStmt extends Statement {
     this.condition = condition;
     this.body = body;
     this.indicator = indicator;
-    this._printables = Arrays.asList(condition, body);
   }
   
   final Expr condition;
@@ -113,7 +111,6 @@ class ForStmt extends Statement {
     this.iterator = iterator;
     this.body = body;
     this.indicator = indicator;
-    this._printables = Arrays.asList(initializer, condition, iterator, body);
   }
 
   final Statement initializer;
@@ -132,7 +129,6 @@ class IfStmt extends Statement {
     this.then = then;
     this.otherwise = otherwise;
     this.indicator = indicator;
-    this._printables = Arrays.asList(condition, then, otherwise);
   }
 
   final Expr condition;
@@ -150,10 +146,6 @@ class ClassStmt extends Statement {
     this.properties = properties;
     this.indicator = indicator;
     this.methods = methods;
-
-    this._printables.add(name);
-    this._printables.addAll(properties);
-    this._printables.addAll(methods);
   }
 
   final Token name;
@@ -171,23 +163,107 @@ class FuncStmt extends Statement {
     this.parameters = parameters;
     this.body = body;
     this.indicator = indicator;
-    this._printables = Arrays.asList(name, parameters, body);
+  }
+
+  // A function whose body the Parser only brace-matched. The tokens between
+  // the braces are parsed by the first call to body().
+  FuncStmt(Token name, Series<Var> parameters, TokenSource unparsedBody, Token blockToken, Token indicator) {
+    this.name = name;
+    this.parameters = parameters;
+    this.unparsedBody = unparsedBody;
+    this.blockToken = blockToken;
+    this.indicator = indicator;
   }
 
   final Token name;
   final Series<Var> parameters;
-  final BlockStmt body;
+  private volatile BlockStmt body;
+  private TokenSource unparsedBody;
+  private Token blockToken;
+  private String syntaxError;
+  private Boolean generator; // Set by isGenerator().
+
+  boolean isBodyParsed() {
+    return body != null;
+  }
+
+  // Throws a ParseError, every time, if the body has a syntax error.
+  BlockStmt body() {
+    BlockStmt parsed = body;
+    if (parsed != null) return parsed;
+
+    // Functions can be shared between interpreters on different threads.
+    synchronized (this) {
+      if (body == null && syntaxError == null) {
+        ErrorReporter.Buffered reporter = new ErrorReporter.Buffered();
+        List<Statement> statements = new Parser(unparsedBody, reporter, true).parse();
+        if (reporter.hadError) {
+          ErrorReporter.Report first = reporter.reports.get(0);
+          syntaxError = String.format("Syntax error in body of '%s': [line %d] Error%s: %s",
+            name.lexeme, first.line, first.where, first.message);
+        } else {
+          body = new BlockStmt(statements, blockToken);
+        }
+        // Drop the tokens, and with them the source they point into.
+        unparsedBody = null;
+      }
+      if (syntaxError != null) throw new ParseError(syntaxError);
+      return body;
+    }
+  }
+
+  // Whether the body yields, directly rather than in a nested function. Calls
+  // to a generator return a LoxGenerator instead of running the body. Throws
+  // like body().
+  boolean isGenerator() {
+    Boolean yields = generator;
+    if (yields == null) {
+      yields = yields(body());
+      generator = yields;
+    }
+    return yields;
+  }
+
+  private static boolean yields(Statement stmt) {
+    if (stmt instanceof YieldStmt) return true;
+    if (stmt instanceof BlockStmt) {
+      for (Statement substmt : ((BlockStmt) stmt).statements) {
+        if (yields(substmt)) return true;
+      }
+    } else if (stmt instanceof IfStmt) {
+      IfStmt ifStmt = (IfStmt) stmt;
+      return yields(ifStmt.then) || (ifStmt.otherwise != null && yields(ifStmt.otherwise));
+    } else if (stmt instanceof ForStmt) {
+      return yields(((ForStmt) stmt).body);
+    } else if (stmt instanceof WhileStmt) {
+      return yields(((WhileStmt) stmt).body);
+    }
+    return false;
+  }
 
   public Void executeWith(Statement.Visitor<Void> visitor) {
     return visitor.execFuncStmt(this);
   }
 }
 
+class ImportStmt extends Statement {
+  ImportStmt(Token path, Token indicator) {
+    this.path = path;
+    this.indicator = indicator;
+  }
+
+  // A STRING token; its literal is the path relative to the importing file.
+  final Token path;
+
+  public Void executeWith(Statement.Visitor<Void> visitor) {
+    return visitor.execImportStmt(this);
+  }
+}
+
 class ReturnStmt extends Statement {
   ReturnStmt(Expr expr, Token indicator) {
     this.expr = expr;
     this.indicator = indicator;
-    this._printables = Arrays.asList(expr);
   }
 
   final Expr expr;
@@ -197,67 +273,154 @@ class ReturnStmt extends Statement {
   }
 }
 
+// Makes the function it is in a generator; see LoxGenerator.
+class YieldStmt extends Statement {
+  YieldStmt(Expr expr, Token indicator) {
+    this.expr = expr;
+    this.indicator = indicator;
+  }
+
+  final Expr expr;
+
+  public Void executeWith(Statement.Visitor<Void> visitor) {
+    return visitor.execYieldStmt(this);
+  }
+}
+
+
+// Tree printing for runtime objects used in error reports. AST nodes are
+// printed by AstPrinter instead, so they don't carry any printing state.
+abstract class Printable {
+  List<Printable> children() {
+    return Collections.emptyList();
+  }
+
+  public void printClass(String prefix, String text) {
+    System.out.printf(prefix + this.getClass().getSimpleName() + ": " + text + "%n");
+  }
+
+  public void print() {
+    // (alin) this indexing is not safe!
+    String caller = Thread.currentThread().getStackTrace()[2].getMethodName();
+    String callerParent = Thread.currentThread().getStackTrace()[3].getMethodName();
+    System.out.printf("Caller: '%s.%s'\n", callerParent, caller);
+    print("", true);
+  }
+
+  public void print(String prefix, boolean parentIsYoungest) {
+    String parent_postfix = parentIsYoungest ? "└─" : "├─";
+    printClass(prefix + parent_postfix, toString());
+
+    List<Printable> children = children();
+    for (int i=0; i<children.size(); i++) {
+      String child_postfix  = parentIsYoungest ? "  " : "│ ";
+      children.get(i).print(prefix + child_postfix, (i==children.size()-1));
+    }
+  }
+}
 
 class Scope extends Printable {
   Scope(Scope parent) {
     this.parent = parent;
     this.locals = new HashMap<>();
-    this._printables = Arrays.asList();
   }
 
-  private Scope(Scope parent, Map<String, Variable> locals) {
+  private Scope(Scope parent, Map<Symbol, Variable> locals) {
     this.parent = parent;
     this.locals = locals;
-    this._printables = Arrays.asList();
   }
 
   final Scope parent;
-  final Map<String, Variable> locals;
+  // Keyed by identity; see Symbol. Concurrent once shared.
+  Map<Symbol, Variable> locals;
+
+  // Makes this scope, and every scope around it, safe for other threads to
+  // look names up in while their owner declares more; see LoxTask. The
+  // scopes around a shared scope are all shared, so this stops at the first.
+  Scope share() {
+    for (Scope scope = this; scope != null && !(scope.locals instanceof ConcurrentHashMap); scope = scope.parent) {
+      scope.locals = new ConcurrentHashMap<>(scope.locals);
+    }
+    return this;
+  }
 
   public Object get(Token token) {
-    String name = token.literal.toString();
-    if (locals.containsKey(name)) {
-      return locals.get(name).value;
+    return _get((Symbol) token.literal);
+  }
+
+  Object _get(Symbol name) {
+    for (Scope scope = this; scope != null; scope = scope.parent) {
+      Variable variable = scope.locals.get(name);
+      if (variable != null) return variable.value;
     }
+    throw new EnvironmentException();
+  }
+
+  Object _get(String name) {
+    Symbol symbol = Symbol.find(name);
+    if (symbol == null) throw new EnvironmentException();
+    return _get(symbol);
+  }
+
+  // The Variable named `name` in this scope itself, not its parents, or null.
+  Variable _local(String name) {
+    Symbol symbol = Symbol.find(name);
+    return symbol == null ? null : locals.get(symbol);
+  }
 
-    if (parent == null) {
-      throw new EnvironmentException();
+  // The Variable `name` resolves to from this scope, or null.
+  Variable _find(Symbol name) {
+    for (Scope scope = this; scope != null; scope = scope.parent) {
+      Variable variable = scope.locals.get(name);
+      if (variable != null) return variable;
     }
-    return parent.get(token);
+    return null;
   }
 
-  void _declare(String name, Object value) {
+  void _declare(Symbol name, Object value) {
     locals.put(name, new Variable(value));
   }
 
+  void _declare(String name, Object value) {
+    _declare(Symbol.intern(name), value);
+  }
+
+  // Binds `name` to an existing Variable, e.g. one exported by a module, so
+  // both scopes see every assignment to it.
+  void _bind(Symbol name, Variable variable) {
+    locals.put(name, variable);
+  }
+
   public void declare(Token token, Object value) {
-    _declare(token.literal.toString(), value);
+    _declare((Symbol) token.literal, value);
   }
 
   public void assign(Token token, Object value) {
-    String name = token.literal.toString();
-    if (locals.containsKey(name)) {
-      Variable variable = locals.get(name);
-      variable.set(value);
-    } else if (parent == null) {
-      throw new EnvironmentException();
-    } else {
-      parent.assign(token, value);
+    Symbol name = (Symbol) token.literal;
+    for (Scope scope = this; scope != null; scope = scope.parent) {
+      Variable variable = scope.locals.get(name);
+      if (variable != null) {
+        variable.set(value);
+        return;
+      }
     }
+    throw new EnvironmentException();
   }
 
   public Scope copyReferences() {
     // Creates scope with a `locals` map storing the same `(k,v)` pairs.
     // The map values reuse the same Variables.
-    Map<String, Variable> newLocals = new HashMap<>(locals);
+    // The copy is a closure's environment, and the closure can be called on
+    // any thread, so the live scopes around it are shared.
+    if (parent != null) parent.share();
+    Map<Symbol, Variable> newLocals = new HashMap<>(locals);
     return new Scope(parent, newLocals);
   }
 
   public Scope copyValues() {
-    Map<String, Variable> newLocals = new HashMap<>();
-    for (String name : locals.keySet()) {
-      Object value = locals.get(name).value;
-      newLocals.put(name, new Variable(value));
+    Map<Symbol, Variable> newLocals = new HashMap<>();
+    for (Map.Entry<Symbol, Variable> entry : locals.entrySet()) {
+      newLocals.put(entry.getKey(), new Variable(entry.getValue().value));
     }
     return new Scope(parent, newLocals);
   }
@@ -279,7 +442,7 @@ class Scope extends Printable {
   public void printScope(String prefix) {
     System.out.println(prefix + "Scope {");
 
-    for (String key : locals.keySet()) {
+    for (Symbol key : locals.keySet()) {
       Variable v = locals.get(key);
       System.out.println(prefix + "  " + key);
       v.print(prefix + "  ", true);
@@ -303,9 +466,10 @@ class Variable extends Printable {
     //   bar = 2;
     //   assert foo == 2;
     this.value = value;
-    this._printables = Arrays.asList();
   }
 
+  // Not volatile: threads only see each other's assignments once they
+  // synchronize; see LoxTask.
   Object value;
 
   public void set(Object value) {
@@ -0,0 +1,50 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+An interned identifier. The Scanner turns every IDENTIFIER into one (it is
+the token's literal), so each distinct name exists once per process, however
+many tokens, scopes and instances mention it.
+
+Scopes key on Symbols by identity. Their hash is a small sequential id,
+computed once, so looking a name up never rehashes or compares its
+characters.
+
+The table only grows. It holds the names in the programs this process has
+scanned, plus the names embedders have bound.
+*/
+final class Symbol {
+  private static final ConcurrentHashMap<String, Symbol> table = new ConcurrentHashMap<>();
+  private static final AtomicInteger nextId = new AtomicInteger();
+
+  private Symbol(String name) {
+    this.name = name;
+    this.id = nextId.getAndIncrement();
+  }
+
+  final String name;
+  final int id;
+
+  static Symbol intern(String name) {
+    Symbol symbol = table.get(name);
+    return symbol != null ? symbol : table.computeIfAbsent(name, Symbol::new);
+  }
+
+  // The Symbol for `name` if there is one. Unlike intern(), never adds to the
+  // table, so probing for names nobody declared doesn't grow it.
+  static Symbol find(String name) {
+    return table.get(name);
+  }
+
+  @Override
+  public int hashCode() {
+    return id;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
@@ -0,0 +1,55 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+Threads for Lox code that runs alongside the main script, e.g. generators.
+Actors share a fixed pool of them instead; see pool().
+
+They are virtual threads where the runtime has them (Java 21 and later),
+which are cheap enough to have one per generator, and daemon platform
+threads elsewhere. The build targets an older Java, so virtual threads are
+looked up reflectively. Either way, they never keep the process alive.
+*/
+final class Threads {
+  private Threads() {}
+
+  private static final ThreadFactory PLATFORM = task -> {
+    Thread thread = new Thread(task);
+    thread.setDaemon(true);
+    return thread;
+  };
+
+  static final ThreadFactory FACTORY = factory();
+  static final boolean VIRTUAL = FACTORY != PLATFORM;
+
+  private static ThreadFactory factory() {
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // Before Java 21, or a preview that isn't enabled.
+      return PLATFORM;
+    }
+  }
+
+  static Thread start(String name, Runnable task) {
+    Thread thread = FACTORY.newThread(task);
+    thread.setName(name);
+    thread.start();
+    return thread;
+  }
+
+  // `size` daemon platform threads, named "`name` 1", "`name` 2", ...
+  static ExecutorService pool(String name, int size) {
+    AtomicInteger count = new AtomicInteger();
+    return Executors.newFixedThreadPool(size, task -> {
+      Thread thread = PLATFORM.newThread(task);
+      thread.setName(name + " " + count.incrementAndGet());
+      return thread;
+    });
+  }
+}
@@ -0,0 +1,153 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+Scanner output as parallel arrays rather than one Token object per token.
+
+Each token costs four ints. Lexemes and literals are only built when the
+Parser asks for a Token (names, operators, literals); punctuation the Parser
+merely checks the type of is never materialized.
+*/
+class TokenBuffer {
+  private static final TokenType[] TYPES = TokenType.values();
+
+  TokenBuffer(SourceText source, int expectedTokens) {
+    int capacity = Math.max(16, expectedTokens);
+    this.source = source;
+    this.types = new int[capacity];
+    this.starts = new int[capacity];
+    this.lengths = new int[capacity];
+    this.lines = new int[capacity];
+  }
+
+  final SourceText source;
+  private int[] types;
+  private int[] starts;
+  private int[] lengths;
+  private int[] lines;
+  private int size = 0;
+
+  void add(TokenType type, int start, int length, int line) {
+    if (size == types.length) grow(size * 2);
+    types[size] = type.ordinal();
+    starts[size] = start;
+    lengths[size] = length;
+    lines[size] = line;
+    size++;
+  }
+
+  // Appends all of `other`, which must be over the same source, shifting its
+  // lines down by `lineOffset`.
+  void append(TokenBuffer other, int lineOffset) {
+    if (size + other.size > types.length) grow(Math.max(size * 2, size + other.size));
+    System.arraycopy(other.types, 0, types, size, other.size);
+    System.arraycopy(other.starts, 0, starts, size, other.size);
+    System.arraycopy(other.lengths, 0, lengths, size, other.size);
+    for (int i = 0; i < other.size; i++) {
+      lines[size + i] = other.lines[i] + lineOffset;
+    }
+    size += other.size;
+  }
+
+  private void grow(int capacity) {
+    types = Arrays.copyOf(types, capacity);
+    starts = Arrays.copyOf(starts, capacity);
+    lengths = Arrays.copyOf(lengths, capacity);
+    lines = Arrays.copyOf(lines, capacity);
+  }
+
+  int size() {
+    return size;
+  }
+
+  TokenType type(int index) {
+    return TYPES[types[index]];
+  }
+
+  int start(int index) {
+    return starts[index];
+  }
+
+  int length(int index) {
+    return lengths[index];
+  }
+
+  int line(int index) {
+    return lines[index];
+  }
+
+  String lexeme(int index) {
+    return source.substring(starts[index], starts[index] + lengths[index]);
+  }
+
+  Token token(int index) {
+    return Scanner.token(type(index), lexeme(index), lines[index]);
+  }
+
+  List<Token> toList() {
+    List<Token> tokens = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      tokens.add(token(i));
+    }
+    return tokens;
+  }
+
+  TokenSource cursor() {
+    return new Cursor(0, size);
+  }
+
+  // Reads tokens [from, end). Position `end` reads as EOF.
+  private class Cursor implements TokenSource {
+    Cursor(int from, int end) {
+      this.current = from;
+      this.end = end;
+    }
+
+    private int current;
+    private final int end;
+
+    @Override
+    public Token peek() {
+      if (current == end) return new Token(TokenType.EOF, "", null, lines[end - 1]);
+      return token(current);
+    }
+
+    @Override
+    public Token previous() {
+      return token(current - 1);
+    }
+
+    @Override
+    public TokenType peekType() {
+      return current == end ? TokenType.EOF : type(current);
+    }
+
+    @Override
+    public TokenType previousType() {
+      return type(current - 1);
+    }
+
+    @Override
+    public void advance() {
+      if (current < end && types[current] != TokenType.EOF.ordinal()) current++;
+    }
+
+    // Brace-matches on the type array alone and hands back a view of the
+    // range, so skipped tokens are never materialized.
+    @Override
+    public TokenSource skipBlock() {
+      int from = current;
+      int depth = 0;
+      while (peekType() != TokenType.EOF) {
+        TokenType type = type(current);
+        if (type == TokenType.RIGHT_BRACE && depth-- == 0) break;
+        if (type == TokenType.LEFT_BRACE) depth++;
+        current++;
+      }
+      return new Cursor(from, current);
+    }
+  }
+}
@@ -0,0 +1,96 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.craftinginterpreters.lox.TokenType.*;
+
+// The tokens the Parser reads. The Parser only ever looks at the token under
+// the cursor and the one just before it, so tokens can be produced on demand.
+interface TokenSource {
+  Token peek();
+  Token previous();
+
+  // Type-only lookups, which a TokenBuffer answers without building a Token.
+  default TokenType peekType() {
+    return peek().type;
+  }
+
+  default TokenType previousType() {
+    return previous().type;
+  }
+
+  // Moves the cursor forward. Does nothing once the cursor is on EOF.
+  void advance();
+
+  // Skips ahead to the '}' closing a block whose '{' was just consumed,
+  // leaving the cursor on it (or on EOF if there is none). Returns the
+  // skipped tokens, followed by an EOF, for parsing later.
+  default TokenSource skipBlock() {
+    List<Token> skipped = new ArrayList<>();
+    int depth = 0;
+    while (peekType() != EOF) {
+      TokenType type = peekType();
+      if (type == RIGHT_BRACE && depth-- == 0) break;
+      if (type == LEFT_BRACE) depth++;
+      skipped.add(peek());
+      advance();
+    }
+    skipped.add(new Token(EOF, "", null, peek().line));
+    return new ListTokenSource(skipped);
+  }
+}
+
+class ListTokenSource implements TokenSource {
+  ListTokenSource(List<Token> tokens) {
+    this.tokens = tokens;
+  }
+
+  private final List<Token> tokens;
+  private int currentToken = 0;
+
+  @Override
+  public Token peek() {
+    return tokens.get(currentToken);
+  }
+
+  @Override
+  public Token previous() {
+    return tokens.get(currentToken - 1);
+  }
+
+  @Override
+  public void advance() {
+    if (peek().type != EOF) currentToken++;
+  }
+}
+
+// Pulls tokens from the Scanner as the Parser advances, so the full token
+// list never exists in memory.
+class ScannerTokenSource implements TokenSource {
+  ScannerTokenSource(Scanner scanner) {
+    this.scanner = scanner;
+    this.current = scanner.nextToken();
+  }
+
+  private final Scanner scanner;
+  private Token current;
+  private Token previous = null;
+
+  @Override
+  public Token peek() {
+    return current;
+  }
+
+  @Override
+  public Token previous() {
+    return previous;
+  }
+
+  @Override
+  public void advance() {
+    if (current.type == EOF) return;
+    previous = current;
+    current = scanner.nextToken();
+  }
+}
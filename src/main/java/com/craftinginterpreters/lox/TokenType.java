@@ -15,8 +15,8 @@ enum TokenType {
   IDENTIFIER, STRING, NUMBER,
 
   // Keywords.
-  AND, CLASS, ELSE, FALSE, FUN, FOR, IF, NIL, OR,
-  PRINT, RETURN, SUPER, THIS, TRUE, VAR, WHILE,
+  AND, CLASS, ELSE, FALSE, FUN, FOR, IF, IMPORT, NIL, OR,
+  PRINT, RETURN, SUPER, THIS, TRUE, VAR, WHILE, YIELD,
 
   EOF
 }